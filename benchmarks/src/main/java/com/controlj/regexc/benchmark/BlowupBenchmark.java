@@ -0,0 +1,93 @@
+package com.controlj.regexc.benchmark;
+
+import com.controlj.regexc.RegexMatcher;
+import com.controlj.regexc.automata.DFA;
+import com.controlj.regexc.automata.NFA;
+import com.controlj.regexc.automata.NFAState;
+import com.controlj.regexc.tree.SyntaxTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * A pattern whose DFA needs 2^(n+1) states, "an a n characters from the end": the cost of building the full DFA,
+ * and the throughput in MB/s of the engines that avoid building it, against {@link Pattern}.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlowupBenchmark {
+    private static final int INPUT_SIZE = 1 << 16;
+
+    @Param({"8", "10", "12"})
+    private int n;
+
+    private String regex;
+    private List<NFAState> nfaStates;
+    private String input;
+    private RegexMatcher dfa;
+    private RegexMatcher lazy;
+    private RegexMatcher bitParallel;
+    private Pattern jdkPattern;
+
+    @Setup
+    public void setup() {
+        regex = "('a'|'b')*'a'('a'|'b'){" + n + "}";
+        nfaStates = new NFA(new SyntaxTree(regex, null).getRoot()).getStateList();
+        input = Corpus.ab(INPUT_SIZE);
+        dfa = new RegexMatcher(regex, RegexMatcher.Engine.DFA);
+        lazy = new RegexMatcher(regex, RegexMatcher.Engine.LAZY_DFA);
+        bitParallel = new RegexMatcher(regex, RegexMatcher.Engine.BIT_PARALLEL);
+        // a class rather than a group, since Pattern recurses for each repetition of a group
+        jdkPattern = Pattern.compile("[ab]*a[ab]{" + n + "}");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public DFA compileDfa() {
+        return new DFA(nfaStates);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public RegexMatcher compileLazy() {
+        return new RegexMatcher(regex, RegexMatcher.Engine.LAZY_DFA);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(INPUT_SIZE)
+    public boolean matchDfa() {
+        return dfa.match(input);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(INPUT_SIZE)
+    public boolean matchLazy() {
+        return lazy.match(input);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(INPUT_SIZE)
+    public boolean matchBitParallel() {
+        return bitParallel.match(input);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(INPUT_SIZE)
+    public boolean matchJdk() {
+        return jdkPattern.matcher(input).matches();
+    }
+}
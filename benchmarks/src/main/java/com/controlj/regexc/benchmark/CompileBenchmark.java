@@ -0,0 +1,102 @@
+package com.controlj.regexc.benchmark;
+
+import com.controlj.regexc.automata.DFA;
+import com.controlj.regexc.automata.NFA;
+import com.controlj.regexc.automata.NFAState;
+import com.controlj.regexc.tree.SyntaxTree;
+import com.controlj.regexc.tree.node.Node;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Time of each stage of compiling a pattern, each from the output of the stage before, and of compiling the same
+ * pattern with {@link Pattern}. None of the stages change their input, so it is built once.
+ * <p>
+ * The rules pattern is the alternation of 100 lexer rules that share their character classes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompileBenchmark {
+    @Param({"literal", "email", "keywords", "blowup", "rules"})
+    private String pattern;
+
+    private String regex;
+    private String jdkRegex;
+    private Node root;
+    private List<NFAState> nfaStates;
+
+    @Setup
+    public void setup() {
+        switch (pattern) {
+            case "literal":
+                regex = "'connection refused'";
+                jdkRegex = "connection refused";
+                break;
+            case "email":
+                regex = "[a-z0-9._]+ '@' [a-z0-9]+ ('.' [a-z]{2,6})+";
+                jdkRegex = "[a-z0-9._]+@[a-z0-9]+(\\.[a-z]{2,6})+";
+                break;
+            case "keywords": {
+                StringBuilder sb = new StringBuilder();
+                StringBuilder jdk = new StringBuilder();
+                for (int i = 0; i != 50; i++) {
+                    String word = "kw" + Integer.toString(i * 7919, 36);
+                    sb.append(i == 0 ? "" : "|").append('\'').append(word).append('\'');
+                    jdk.append(i == 0 ? "" : "|").append(word);
+                }
+                regex = sb.toString();
+                jdkRegex = jdk.toString();
+                break;
+            }
+            case "blowup":
+                regex = "('a'|'b')*'a'('a'|'b'){10}";
+                jdkRegex = "(a|b)*a(a|b){10}";
+                break;
+            case "rules": {
+                StringBuilder sb = new StringBuilder();
+                StringBuilder jdk = new StringBuilder();
+                for (int i = 0; i != 100; i++) {
+                    sb.append(i == 0 ? "" : "|").append("'cmd").append(i)
+                            .append("' [ \\t]+ ([0-9]+ | [a-zA-Z_]+)")
+                            .append(" (',' [ \\t]* ([0-9]+ | [a-zA-Z_]+))* [\\r]? [\\n]");
+                    jdk.append(i == 0 ? "" : "|").append("cmd").append(i)
+                            .append("[ \\t]+([0-9]+|[a-zA-Z_]+)(,[ \\t]*([0-9]+|[a-zA-Z_]+))*\\r?\\n");
+                }
+                regex = sb.toString();
+                jdkRegex = jdk.toString();
+                break;
+            }
+            default:
+                throw new IllegalArgumentException(pattern);
+        }
+        root = new SyntaxTree(regex, null).getRoot();
+        nfaStates = new NFA(root).getStateList();
+    }
+
+    @Benchmark
+    public Node syntaxTree() {
+        return new SyntaxTree(regex, null).getRoot();
+    }
+
+    @Benchmark
+    public NFA nfa() {
+        return new NFA(root);
+    }
+
+    @Benchmark
+    public DFA dfa() {
+        return new DFA(nfaStates);
+    }
+
+    @Benchmark
+    public Pattern jdk() {
+        return Pattern.compile(jdkRegex);
+    }
+}
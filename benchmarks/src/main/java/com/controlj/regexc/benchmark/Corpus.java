@@ -0,0 +1,74 @@
+package com.controlj.regexc.benchmark;
+
+import java.util.Random;
+
+/**
+ * Generates the inputs for the benchmarks, the same for every run.
+ */
+final class Corpus {
+    /**
+     * Input length of the throughput benchmarks. Each is run with this many operations per invocation, so that a
+     * score in operations per microsecond is in MB/s.
+     */
+    static final int SIZE = 1 << 20;
+
+    private static final String[] LEVELS = {"INFO", "INFO", "INFO", "DEBUG", "WARN"};
+    private static final String[] WORDS = {"request", "served", "user", "cache", "miss", "hit", "query", "took",
+            "session", "opened", "closed", "retry", "upstream", "ok"};
+
+    private Corpus() {
+    }
+
+    /**
+     * @return printable log lines, one of which contains "timeout" about half way through
+     */
+    static String logLines(int size) {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder(size + 100);
+        int line = 0;
+        while (sb.length() < size) {
+            sb.append(String.format("2018-03-%02d %02d:%02d:%02d ", 1 + line % 28, line / 3600 % 24, line / 60 % 60,
+                    line % 60));
+            sb.append(LEVELS[random.nextInt(LEVELS.length)]).append(" worker-").append(random.nextInt(16));
+            for (int i = 3 + random.nextInt(6); i != 0; i--)
+                sb.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+            sb.append(" id=").append(random.nextInt(100000));
+            if (line == 8000)
+                sb.append(" timeout");
+            sb.append('\n');
+            line++;
+        }
+        sb.setLength(size - 1);
+        return sb.append('\n').toString();
+    }
+
+    /**
+     * @return lower case words, with about perKb tokens like "ERR-1234" in each 1024 characters
+     */
+    static String withTokens(int size, int perKb) {
+        Random random = new Random(7);
+        StringBuilder sb = new StringBuilder(size + 100);
+        while (sb.length() < size) {
+            if (perKb != 0 && random.nextInt(1024 * 6) < perKb * 6) {
+                sb.append("ERR-").append(1000 + random.nextInt(9000)).append(' ');
+                continue;
+            }
+            for (int i = 2 + random.nextInt(6); i != 0; i--)
+                sb.append((char) ('a' + random.nextInt(26)));
+            sb.append(' ');
+        }
+        sb.setLength(size);
+        return sb.toString();
+    }
+
+    /**
+     * @return random a's and b's
+     */
+    static String ab(int size) {
+        Random random = new Random(3);
+        char[] chars = new char[size];
+        for (int i = 0; i != size; i++)
+            chars[i] = random.nextBoolean() ? 'a' : 'b';
+        return new String(chars);
+    }
+}
@@ -0,0 +1,66 @@
+package com.controlj.regexc.benchmark;
+
+import com.controlj.regexc.RegexMatcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Throughput of matching a whole 1 MiB input, in MB/s, for each engine and for {@link Pattern}. The patterns all
+ * run to the end of the input, and "keyword" can only match because of a word half way through it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(Corpus.SIZE)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchBenchmark {
+    @Param({"printable", "keyword", "alternation"})
+    private String pattern;
+
+    @Param({"DFA", "LAZY_DFA", "BYTECODE", "JDK"})
+    private String engine;
+
+    private String input;
+    private RegexMatcher matcher;
+    private Pattern jdkPattern;
+
+    @Setup
+    public void setup() {
+        String regex;
+        String jdkRegex;
+        switch (pattern) {
+            case "printable":
+                regex = "[ -~\\n]*";
+                jdkRegex = "[ -~\\n]*";
+                break;
+            case "keyword":
+                regex = "[ -~\\n]*'timeout'[ -~\\n]*";
+                jdkRegex = "[ -~\\n]*timeout[ -~\\n]*";
+                break;
+            case "alternation":
+                regex = "[ -~\\n]*('WARN'|'ERROR'|'FATAL')' worker-1'[0-5][ -~\\n]*";
+                jdkRegex = "[ -~\\n]*(WARN|ERROR|FATAL) worker-1[0-5][ -~\\n]*";
+                break;
+            default:
+                throw new IllegalArgumentException(pattern);
+        }
+        input = Corpus.logLines(Corpus.SIZE);
+        if (engine.equals("JDK"))
+            jdkPattern = Pattern.compile(jdkRegex);
+        else
+            matcher = new RegexMatcher(regex, RegexMatcher.Engine.valueOf(engine));
+        if (!match())
+            throw new IllegalStateException(pattern + " does not match the corpus");
+    }
+
+    @Benchmark
+    public boolean match() {
+        if (matcher != null)
+            return matcher.match(input);
+        return jdkPattern.matcher(input).matches();
+    }
+}
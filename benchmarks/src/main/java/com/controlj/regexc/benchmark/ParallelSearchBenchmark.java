@@ -0,0 +1,67 @@
+package com.controlj.regexc.benchmark;
+
+import com.controlj.regexc.ParallelSearcher;
+import com.controlj.regexc.RegexSearcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of finding every match in a 16 MiB byte array, in MB/s, with a {@link ParallelSearcher} on pools of 1 to
+ * 8 threads. With 0 threads the same pattern is searched by a single {@link RegexSearcher}, for comparison.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(ParallelSearchBenchmark.SIZE)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelSearchBenchmark {
+    static final int SIZE = 16 * Corpus.SIZE;
+
+    @Param({"0", "1", "2", "4", "8"})
+    private int threads;
+
+    @Param({"SHORTEST", "LONGEST"})
+    private String mode;
+
+    private byte[] input;
+    private RegexSearcher searcher;
+    private ParallelSearcher parallelSearcher;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() {
+        input = Corpus.withTokens(SIZE, 10).getBytes(StandardCharsets.ISO_8859_1);
+        searcher = new RegexSearcher("[A-Z]{3}'-'[0-9]{4}", RegexSearcher.Mode.valueOf(mode));
+        if (threads != 0) {
+            pool = new ForkJoinPool(threads);
+            parallelSearcher = new ParallelSearcher(searcher);
+            parallelSearcher.setPool(pool);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null)
+            pool.shutdown();
+    }
+
+    @Benchmark
+    public int search() {
+        if (parallelSearcher != null) {
+            // matches are reported on the calling thread
+            int[] count = new int[1];
+            parallelSearcher.search(input, 0, input.length, (start, end) -> count[0]++);
+            return count[0];
+        }
+        int count = 0;
+        searcher.search(input, 0, input.length);
+        while (searcher.find())
+            count++;
+        return count;
+    }
+}
@@ -0,0 +1,60 @@
+package com.controlj.regexc.benchmark;
+
+import com.controlj.regexc.RegexSearcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Throughput of finding every match in a 1 MiB input, in MB/s, at several densities of matches per KiB. The "prefix"
+ * pattern starts with a literal the searcher can skip to, the "class" pattern does not.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(Corpus.SIZE)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({"0", "1", "10", "100"})
+    private int perKb;
+
+    @Param({"prefix", "class"})
+    private String pattern;
+
+    @Param({"SHORTEST", "LONGEST", "JDK"})
+    private String engine;
+
+    private String input;
+    private RegexSearcher searcher;
+    private Pattern jdkPattern;
+
+    @Setup
+    public void setup() {
+        input = Corpus.withTokens(Corpus.SIZE, perKb);
+        boolean prefix = pattern.equals("prefix");
+        if (engine.equals("JDK"))
+            jdkPattern = Pattern.compile(prefix ? "ERR-[0-9]{4}" : "[A-Z]{3}-[0-9]{4}");
+        else
+            searcher = new RegexSearcher(prefix ? "'ERR-'[0-9]{4}" : "[A-Z]{3}'-'[0-9]{4}",
+                    RegexSearcher.Mode.valueOf(engine));
+    }
+
+    @Benchmark
+    public int search() {
+        int count = 0;
+        if (searcher != null) {
+            searcher.search(input);
+            while (searcher.find())
+                count++;
+        } else {
+            Matcher matcher = jdkPattern.matcher(input);
+            while (matcher.find())
+                count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.lex;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Uses the classes the plugin generated, so this only compiles if it ran.
+ */
+public class GeneratedTest {
+    @Test
+    public void testPattern() {
+        Assert.assertTrue(HexNumber.matches("0x1F"));
+        Assert.assertFalse(HexNumber.matches("0x"));
+        Assert.assertFalse(HexNumber.matches("1F"));
+    }
+
+    @Test
+    public void testRuleFile() {
+        LexCount lexer = new LexCount();
+        int[] results = new int[7];
+        String input = "n12;n7;";
+        for (int i = 0; i != input.length(); i++)
+            results[i] = lexer.lex(input.charAt(i));
+        Assert.assertArrayEquals(new int[]{1, 1, 1, 0, 1, 1, 0}, results);
+        Assert.assertEquals(Arrays.asList("12", "7"), lexer.seen);
+        Assert.assertEquals(2, lexer.lex('x'));
+    }
+}
@@ -0,0 +1,120 @@
+package com.controlj.regexc.maven;
+
+import com.controlj.regexc.JavaCodeWriter;
+import com.controlj.regexc.Rex;
+import com.controlj.regexc.automata.DFA;
+import com.controlj.regexc.automata.NFA;
+import com.controlj.regexc.tree.SyntaxTree;
+import com.controlj.regexc.util.Actions;
+import com.controlj.regexc.util.InvalidSyntaxException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Generates a Java matcher class, with {@link JavaCodeWriter}, for each rule file in the source directory and each
+ * configured pattern, and adds the output directory to the compile sources. A rule file's class is named from its
+ * {@code %prefix}. A class is only regenerated when its rule file is newer than it, or when the pom has changed.
+ * <pre>
+ * &lt;plugin&gt;
+ *     &lt;groupId&gt;top.yatt.dfargx&lt;/groupId&gt;
+ *     &lt;artifactId&gt;rex-maven-plugin&lt;/artifactId&gt;
+ *     &lt;executions&gt;&lt;execution&gt;&lt;goals&gt;&lt;goal&gt;generate&lt;/goal&gt;&lt;/goals&gt;&lt;/execution&gt;&lt;/executions&gt;
+ *     &lt;configuration&gt;
+ *         &lt;packageName&gt;com.example.lex&lt;/packageName&gt;
+ *         &lt;patterns&gt;
+ *             &lt;HexNumber&gt;'0x' [0-9a-fA-F]+&lt;/HexNumber&gt;
+ *         &lt;/patterns&gt;
+ *     &lt;/configuration&gt;
+ * &lt;/plugin&gt;
+ * </pre>
+ */
+@Mojo(name = "generate", defaultPhase = LifecyclePhase.GENERATE_SOURCES, threadSafe = true)
+public class GenerateMojo extends AbstractMojo {
+    @Parameter(defaultValue = "${project.basedir}/src/main/rex")
+    private File sourceDirectory;
+
+    @Parameter(defaultValue = "${project.build.directory}/generated-sources/rex")
+    private File outputDirectory;
+
+    @Parameter
+    private String packageName;
+
+    /**
+     * Patterns to compile, keyed by the name of the class to generate.
+     */
+    @Parameter
+    private Map<String, String> patterns;
+
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        File[] files = sourceDirectory.listFiles((dir, name) -> name.endsWith(".re"));
+        if (files != null) {
+            for (File file : files)
+                generate(file);
+        }
+        if (patterns != null) {
+            for (Map.Entry<String, String> entry : patterns.entrySet())
+                generate(entry.getKey(), entry.getValue());
+        }
+        project.addCompileSourceRoot(outputDirectory.getPath());
+    }
+
+    private boolean isStale(File source, File target) {
+        File pom = project.getFile();
+        return !target.exists() || target.lastModified() < source.lastModified()
+                || pom != null && target.lastModified() < pom.lastModified();
+    }
+
+    private void generate(File file) throws MojoExecutionException, MojoFailureException {
+        try (InputStream stream = new FileInputStream(file)) {
+            Rex rex = new Rex(file.getName(), stream);
+            rex.read();
+            if (rex.getActions().getPrefix() == null)
+                throw new MojoFailureException(file + ": missing %prefix");
+            // the class name is known before building the DFA, so an up to date class costs nothing
+            JavaCodeWriter writer = new JavaCodeWriter(null, outputDirectory, rex.getActions());
+            writer.setPackageName(packageName);
+            if (!isStale(file, writer.getFile())) {
+                getLog().debug(writer.getFile() + " is up to date");
+                return;
+            }
+            writer = new JavaCodeWriter(rex.getDfa(), outputDirectory, rex.getActions());
+            writer.setPackageName(packageName);
+            writer.write();
+            getLog().info("Generated " + writer.getFile() + " from " + file.getName());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot generate a matcher from " + file, e);
+        } catch (InvalidSyntaxException e) {
+            throw new MojoFailureException(file + ": " + e.getMessage());
+        }
+    }
+
+    private void generate(String className, String regex) throws MojoExecutionException, MojoFailureException {
+        try {
+            DFA dfa = new DFA(new NFA(new SyntaxTree(regex, null).getRoot()).getStateList());
+            JavaCodeWriter writer = new JavaCodeWriter(dfa, outputDirectory, new Actions());
+            writer.setPackageName(packageName);
+            writer.setClassName(className);
+            writer.write();
+            getLog().info("Generated " + writer.getFile() + " from " + regex);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot generate " + className, e);
+        } catch (InvalidSyntaxException e) {
+            throw new MojoFailureException("Pattern for " + className + ": " + e.getMessage());
+        }
+    }
+}
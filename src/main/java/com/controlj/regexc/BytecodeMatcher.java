@@ -0,0 +1,131 @@
+package com.controlj.regexc;
+
+import com.controlj.regexc.automata.DFA;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A matcher for a single DFA, compiled at run time to JVM bytecode in which each state is a block of code and each
+ * transition a direct branch, so matching loads no tables. The class is defined as a hidden class where the JVM
+ * supports them (Java 15 and later), otherwise in a class loader of its own, so either way it is unloaded once the
+ * matcher is no longer used.
+ * <p>
+ * Methods longer than {@link #MAX_CODE} bytes are never compiled by the JIT and would run slower than
+ * {@link RegexMatcher}'s table, so a DFA with too many states or transitions is not compiled.
+ */
+public abstract class BytecodeMatcher {
+    /**
+     * The most bytes of code generated for a method, which is the largest method the JIT compiles by default.
+     */
+    public static final int MAX_CODE = 8000;
+
+    private static final AtomicInteger count = new AtomicInteger();
+    private static final Method defineHiddenClass = findDefineHiddenClass();
+
+    protected BytecodeMatcher() {
+    }
+
+    /**
+     * @return true if the whole input matches
+     */
+    public abstract boolean matches(CharSequence input);
+
+    /**
+     * Match bytes as characters 0-255, without decoding them.
+     */
+    public abstract boolean matches(byte[] bytes, int offset, int length);
+
+    /**
+     * Match the bytes between the position and limit of a heap or direct buffer as characters 0-255, leaving the
+     * position unchanged. A direct buffer is read through a {@link CharSequence} view of it.
+     */
+    public boolean matches(ByteBuffer buffer) {
+        if (buffer.hasArray())
+            return matches(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        return matches(new ByteChars(buffer, buffer.position(), buffer.limit()));
+    }
+
+    /**
+     * @return a matcher for the DFA, or null if its code would be longer than {@link #MAX_CODE}
+     */
+    public static BytecodeMatcher compile(DFA dfa) {
+        String name = BytecodeMatcher.class.getName().replace('.', '/') + "$" + count.incrementAndGet();
+        byte[] bytes;
+        try {
+            bytes = new MatcherClassWriter(dfa.getFlatTable(), dfa.getClassMap(), dfa.getClassCount(),
+                    dfa.getFlatInitState(), dfa.getFlatRejectState(), dfa.getFlatAcceptState()).write(name, MAX_CODE);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);     // not thrown writing to memory
+        }
+        if (bytes == null)
+            return null;
+        try {
+            Class<?> type = define(bytes);
+            return (BytecodeMatcher) type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load a generated matcher", e);
+        }
+    }
+
+    private static Method findDefineHiddenClass() {
+        try {
+            Class<?> option = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            return MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class,
+                    Array.newInstance(option, 0).getClass());
+        } catch (ReflectiveOperationException e) {
+            return null;    // before Java 15
+        }
+    }
+
+    private static Class<?> define(byte[] bytes) throws ReflectiveOperationException {
+        if (defineHiddenClass != null) {
+            Object lookup = defineHiddenClass.invoke(MethodHandles.lookup(), bytes, true,
+                    Array.newInstance(defineHiddenClass.getParameterTypes()[2].getComponentType(), 0));
+            return ((MethodHandles.Lookup) lookup).lookupClass();
+        }
+        return new Loader(BytecodeMatcher.class.getClassLoader()).define(bytes);
+    }
+
+    // the bytes of a buffer from start to end as characters 0-255
+    private static final class ByteChars implements CharSequence {
+        private final ByteBuffer buffer;
+        private final int start;
+        private final int end;
+
+        ByteChars(ByteBuffer buffer, int start, int end) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(start + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return new ByteChars(buffer, start + from, start + to);
+        }
+    }
+
+    private static final class Loader extends ClassLoader {
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(byte[] bytes) {
+            return defineClass(null, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.controlj.regexc;
+
+/**
+ * Told about each pattern compiled, for example to record metrics or to log patterns that are slow to compile.
+ */
+public interface CompileListener {
+    /**
+     * Called on the compiling thread once a pattern has compiled.
+     */
+    void compiled(String regex, CompileStatistics statistics);
+}
@@ -0,0 +1,135 @@
+package com.controlj.regexc;
+
+import com.controlj.regexc.automata.DFA;
+import com.controlj.regexc.automata.NFA;
+import com.controlj.regexc.automata.SearchDFA;
+import com.controlj.regexc.tree.SyntaxTree;
+
+/**
+ * How long each stage of compiling a pattern took and how large its automata are, so that patterns which compile
+ * slowly or produce huge tables can be found. Times are in nanoseconds. A searcher builds two or three DFAs, whose
+ * figures are summed; an engine that builds no DFA has zero for all of them.
+ */
+public class CompileStatistics {
+    private final long parseNanos;
+    private final long shuntNanos;
+    private final long treeNanos;
+    private final int nfaStateCount;
+    private final long nfaNanos;
+    private final int subsetStateCount;
+    private final long subsetNanos;
+    private final int dfaStateCount;
+    private final long minimizeNanos;
+    private final long tableBytes;
+
+    /**
+     * @param nfa  the NFA built from the tree, or null
+     * @param dfas the DFAs built
+     */
+    public CompileStatistics(SyntaxTree tree, NFA nfa, DFA... dfas) {
+        this(tree, nfa, null, dfas);
+    }
+
+    /**
+     * @param nfa    the NFA built from the tree, or null
+     * @param search the search DFA built, or null; it is not minimized, so its states count as both subset and DFA
+     *               states, and its build time as subset construction
+     * @param dfas   the other DFAs built
+     */
+    public CompileStatistics(SyntaxTree tree, NFA nfa, SearchDFA search, DFA... dfas) {
+        parseNanos = tree.getParseNanos();
+        shuntNanos = tree.getShuntNanos();
+        treeNanos = tree.getBuildNanos();
+        nfaStateCount = nfa == null ? 0 : nfa.getStateList().size();
+        nfaNanos = nfa == null ? 0 : nfa.getBuildNanos();
+        int subsetStates = 0;
+        long subset = 0;
+        int dfaStates = 0;
+        long minimize = 0;
+        long bytes = 0;
+        if (search != null) {
+            subsetStates += search.getStateCount();
+            subset += search.getBuildNanos();
+            dfaStates += search.getStateCount();
+            bytes += search.getTableBytes();
+        }
+        for (DFA dfa : dfas) {
+            if (dfa == null)
+                continue;
+            subsetStates += dfa.getSubsetStateCount();
+            subset += dfa.getSubsetNanos();
+            dfaStates += dfa.getStateCount();
+            minimize += dfa.getMinimizeNanos();
+            bytes += dfa.getTableBytes();
+        }
+        subsetStateCount = subsetStates;
+        subsetNanos = subset;
+        dfaStateCount = dfaStates;
+        minimizeNanos = minimize;
+        tableBytes = bytes;
+    }
+
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * @return the time taken to put the parsed nodes in postfix order
+     */
+    public long getShuntNanos() {
+        return shuntNanos;
+    }
+
+    public long getTreeNanos() {
+        return treeNanos;
+    }
+
+    public int getNfaStateCount() {
+        return nfaStateCount;
+    }
+
+    public long getNfaNanos() {
+        return nfaNanos;
+    }
+
+    /**
+     * @return the number of states the subset construction built, before minimization
+     */
+    public int getSubsetStateCount() {
+        return subsetStateCount;
+    }
+
+    public long getSubsetNanos() {
+        return subsetNanos;
+    }
+
+    /**
+     * @return the number of states after minimization
+     */
+    public int getDfaStateCount() {
+        return dfaStateCount;
+    }
+
+    /**
+     * @return the time taken to minimize and build the tables
+     */
+    public long getMinimizeNanos() {
+        return minimizeNanos;
+    }
+
+    public long getTableBytes() {
+        return tableBytes;
+    }
+
+    public long getTotalNanos() {
+        return parseNanos + shuntNanos + treeNanos + nfaNanos + subsetNanos + minimizeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "CompileStatistics{parse=" + parseNanos / 1000 + "us, shunt=" + shuntNanos / 1000 + "us, tree="
+                + treeNanos / 1000 + "us, nfa=" + nfaStateCount + " states/" + nfaNanos / 1000 + "us, subset="
+                + subsetStateCount + " states/" + subsetNanos / 1000 + "us, dfa=" + dfaStateCount + " states/"
+                + minimizeNanos / 1000 + "us, table=" + tableBytes + " bytes}";
+    }
+}
@@ -0,0 +1,222 @@
+package com.controlj.regexc;
+
+import com.controlj.regexc.automata.DFA;
+import com.controlj.regexc.util.Actions;
+import com.controlj.regexc.util.CommonSets;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Writes a DFA as the source of a Java class, so that patterns known at build time cost nothing to compile at run
+ * time. The class holds the DFA's flat transition table in static final arrays, with a static {@code matches} method
+ * for whole-input matching and, like {@link CCodeWriter}, a push-model {@code lex} method taking a character at a
+ * time and performing the rule file's actions, which are Java statements here. Header lines starting with
+ * {@code import} are placed before the class and the rest inside it.
+ * <p>
+ * The tables are stored as string constants and decoded when the class is loaded, since array initializers compile
+ * to code and a large table would exceed the size limit of a method.
+ */
+public class JavaCodeWriter {
+    private static final int CHUNK_INTS = 8192;    // ints per string constant, which must fit in 65535 bytes
+
+    private DFA dfa;
+    private File path;
+    private Actions actions;
+    private String packageName;
+    private String className;
+    private BufferedWriter writer;
+
+    public JavaCodeWriter(DFA dfa, File path, Actions actions) {
+        this.dfa = dfa;
+        if (path == null)
+            path = new File(".");
+        this.path = path;
+        this.actions = actions;
+        String prefix = actions.getPrefix() == null ? "" : actions.getPrefix();
+        className = "Lex" + (prefix.isEmpty() ? "" : Character.toUpperCase(prefix.charAt(0)) + prefix.substring(1));
+    }
+
+    public String getPackageName() {
+        return packageName;
+    }
+
+    /**
+     * @param packageName the package of the generated class, or null for the default package
+     */
+    public void setPackageName(String packageName) {
+        this.packageName = packageName;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @param className the name of the generated class, by default "Lex" followed by the capitalized prefix
+     */
+    public void setClassName(String className) {
+        this.className = className;
+    }
+
+    /**
+     * @return the file the class is written to, under the output path in the directory for its package
+     */
+    public File getFile() {
+        File dir = path;
+        if (packageName != null && !packageName.isEmpty())
+            dir = new File(path, packageName.replace('.', File.separatorChar));
+        return new File(dir, className + ".java");
+    }
+
+    private void format(String s, Object... args) throws IOException {
+        writer.write(String.format(Locale.US, s, args));
+    }
+
+    // a string literal holding each int as two chars, escaped so that javac's unicode pre-processing is harmless
+    private void putInts(int[] values, int from, int to) throws IOException {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = from; i != to; i++) {
+            putChar(sb, (char) (values[i] >>> 16));
+            putChar(sb, (char) values[i]);
+        }
+        sb.append('"');
+        writer.write(sb.toString());
+    }
+
+    private static void putChar(StringBuilder sb, char c) {
+        if (c == '"' || c == '\\')
+            sb.append('\\').append(c);
+        else if (c >= 0x20 && c < 0x7F)
+            sb.append(c);
+        else if (c < 0x100)
+            sb.append(String.format("\\%03o", (int) c));
+        else
+            sb.append(String.format("\\u%04x", (int) c));
+    }
+
+    private void putTable(String name, int[] values) throws IOException {
+        format("    private static final int[] %s = ints(", name);
+        for (int from = 0; from < values.length || from == 0; from += CHUNK_INTS) {
+            if (from != 0)
+                format(",");
+            format("\n            ");
+            putInts(values, from, Math.min(values.length, from + CHUNK_INTS));
+        }
+        format(");\n");
+    }
+
+    public void write() throws IOException {
+        File file = getFile();
+        //noinspection ResultOfMethodCallIgnored
+        file.getParentFile().mkdirs();
+        int classCount = dfa.getClassCount();
+        int[] classMap = new int[CommonSets.ENCODING_LENGTH];
+        for (int i = 0; i != classMap.length; i++)
+            classMap[i] = dfa.getClassMap()[i] & 0xFF;
+        List<Set<Integer>> actionSets = dfa.getActionSets();
+        String args = actions.getArgs() == null ? "" : ", " + actions.getArgs();
+        String state = actions.getState();
+        if (state == null)
+            state = "state";
+        else if (state.startsWith("(") && state.endsWith(")"))
+            state = state.substring(1, state.length() - 1);
+        writer = new BufferedWriter(new FileWriter(file));
+        format("// Generated from a DFA of %d states. Do not edit.\n", dfa.getStateCount());
+        if (packageName != null && !packageName.isEmpty())
+            format("package %s;\n\n", packageName);
+        StringBuilder members = new StringBuilder();
+        for (String line : actions.getBody().split("\n")) {
+            if (line.trim().startsWith("import "))
+                format("%s\n", line.trim());
+            else if (!line.trim().isEmpty())
+                members.append("    ").append(line).append('\n');
+        }
+        format("\npublic final class %s {\n", className);
+        format("    public static final int ACCEPT = 0;\n");
+        format("    public static final int CONTINUE = 1;\n");
+        format("    public static final int FAIL = 2;\n\n");
+        format("    private static final int INIT = %d;\n", dfa.getFlatInitState());
+        format("    private static final int REJECT = %d;\n", dfa.getFlatRejectState());
+        format("    private static final int FIRST_ACCEPT = %d;\n", dfa.getFlatAcceptState());
+        putTable("CLASS_MAP", classMap);
+        format("    // premultiplied by the %d classes\n", classCount);
+        putTable("TABLE", dfa.getFlatTable());
+        if (actionSets.size() > 1)
+            putTable("ACTIONS", dfa.getFlatActions());
+        format("\n%s", members);
+        if (actions.getState() == null)
+            format("\n    private int state = INIT;\n");
+        format("\n    private static int[] ints(String... chunks) {\n");
+        format("        int length = 0;\n");
+        format("        for (String chunk : chunks)\n");
+        format("            length += chunk.length() / 2;\n");
+        format("        int[] ints = new int[length];\n");
+        format("        int i = 0;\n");
+        format("        for (String chunk : chunks) {\n");
+        format("            for (int j = 0; j != chunk.length(); j += 2)\n");
+        format("                ints[i++] = chunk.charAt(j) << 16 | chunk.charAt(j + 1);\n");
+        format("        }\n");
+        format("        return ints;\n");
+        format("    }\n\n");
+        format("    public static boolean matches(CharSequence input) {\n");
+        format("        int s = INIT;\n");
+        format("        for (int i = 0, length = input.length(); i != length; i++) {\n");
+        format("            char c = input.charAt(i);\n");
+        format("            if (c >= %d)\n", CommonSets.ENCODING_LENGTH);
+        format("                return false;\n");
+        format("            s = TABLE[s + CLASS_MAP[c]];\n");
+        format("            if (s == REJECT)\n");
+        format("                return false;\n");
+        format("        }\n");
+        format("        return s >= FIRST_ACCEPT;\n");
+        format("    }\n\n");
+        format("    public static boolean matches(byte[] input, int offset, int length) {\n");
+        format("        int s = INIT;\n");
+        format("        for (int i = offset, end = offset + length; i != end; i++) {\n");
+        format("            s = TABLE[s + CLASS_MAP[input[i] & 0xFF]];\n");
+        format("            if (s == REJECT)\n");
+        format("                return false;\n");
+        format("        }\n");
+        format("        return s >= FIRST_ACCEPT;\n");
+        format("    }\n\n");
+        format("    public void reset() {\n");
+        format("        %s = INIT;\n", state);
+        format("    }\n\n");
+        format("    /**\n");
+        format("     * Take the next character, performing the actions on its transition.\n");
+        format("     * After ACCEPT the state is reset for the next match; after FAIL it is unchanged.\n");
+        format("     */\n");
+        format("    public int lex(int token%s) {\n", args);
+        format("        if (token < 0 || token >= %d)\n", CommonSets.ENCODING_LENGTH);
+        format("            return FAIL;\n");
+        format("        int index = %s + CLASS_MAP[token];\n", state);
+        format("        int next = TABLE[index];\n");
+        format("        if (next == REJECT)\n");
+        format("            return FAIL;\n");
+        if (actionSets.size() > 1) {
+            format("        switch (ACTIONS[index]) {\n");
+            for (int i = 1; i != actionSets.size(); i++) {
+                format("            case %d: {\n", i);
+                format("                %s\n", actions.getText(actionSets.get(i)).trim());
+                format("                break;\n");
+                format("            }\n");
+            }
+            format("        }\n");
+        }
+        format("        if (next >= FIRST_ACCEPT) {\n");
+        format("            %s = INIT;\n", state);
+        format("            return ACCEPT;\n");
+        format("        }\n");
+        format("        %s = next;\n", state);
+        format("        return CONTINUE;\n");
+        format("    }\n");
+        format("}\n");
+        writer.close();
+    }
+}
@@ -0,0 +1,107 @@
+package com.controlj.regexc;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Finds occurrences of a literal with the Boyer-Moore-Horspool algorithm, which compares the last character of the
+ * window first and usually skips the whole length of the literal when it does not match. Strings are searched with
+ * {@link String#indexOf(String, int)}, which the JVM already vectorizes.
+ */
+final class LiteralScanner {
+    private final String literal;
+    private final char[] chars;
+    private final int last;     // index of the last character
+    private final int[] shift = new int[256];
+
+    LiteralScanner(String literal) {
+        this.literal = literal;
+        chars = literal.toCharArray();
+        last = chars.length - 1;
+        Arrays.fill(shift, chars.length);
+        for (int i = 0; i != last; i++)
+            shift[chars[i]] = last - i;
+    }
+
+    int length() {
+        return chars.length;
+    }
+
+    private int shift(int ch) {
+        return ch < shift.length ? shift[ch] : chars.length;
+    }
+
+    // the index of the first occurrence at or after from that ends by to, or -1
+    int indexOf(String str, int from, int to) {
+        int i = str.indexOf(literal, from);
+        return i >= 0 && i + chars.length <= to ? i : -1;
+    }
+
+    int indexOf(byte[] bytes, int from, int to) {
+        char end = chars[last];
+        for (int i = from + last; i < to; ) {
+            int ch = bytes[i] & 0xFF;
+            if (ch == end) {
+                int start = i - last;
+                int j = 0;
+                while (j != last && (bytes[start + j] & 0xFF) == chars[j])
+                    j++;
+                if (j == last)
+                    return start;
+            }
+            i += shift[ch];
+        }
+        return -1;
+    }
+
+    int indexOf(char[] str, int from, int to) {
+        char end = chars[last];
+        for (int i = from + last; i < to; ) {
+            char ch = str[i];
+            if (ch == end) {
+                int start = i - last;
+                int j = 0;
+                while (j != last && str[start + j] == chars[j])
+                    j++;
+                if (j == last)
+                    return start;
+            }
+            i += shift(ch);
+        }
+        return -1;
+    }
+
+    int indexOf(CharSequence str, int from, int to) {
+        char end = chars[last];
+        for (int i = from + last; i < to; ) {
+            char ch = str.charAt(i);
+            if (ch == end) {
+                int start = i - last;
+                int j = 0;
+                while (j != last && str.charAt(start + j) == chars[j])
+                    j++;
+                if (j == last)
+                    return start;
+            }
+            i += shift(ch);
+        }
+        return -1;
+    }
+
+    int indexOf(ByteBuffer buffer, int from, int to) {
+        char end = chars[last];
+        for (int i = from + last; i < to; ) {
+            int ch = buffer.get(i) & 0xFF;
+            if (ch == end) {
+                int start = i - last;
+                int j = 0;
+                while (j != last && (buffer.get(start + j) & 0xFF) == chars[j])
+                    j++;
+                if (j == last)
+                    return start;
+            }
+            i += shift[ch];
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,128 @@
+package com.controlj.regexc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * For each position of a text, the states of an anchored DFA from which the text that follows can still reach an
+ * accepting state. They are found by one backward pass over the text, after which a match starts at a position iff
+ * its first character leads to a live state, and a scan for the longest match can stop as soon as its state is no
+ * longer live, one character after the last accepting position.
+ * <p>
+ * Each set of states is numbered when first reached, and its predecessors are built on demand. Only the set numbers
+ * at every {@link #BLOCK} positions are kept; those of the positions in between are recomputed a block at a time,
+ * so asking for positions in increasing order reads each character once more.
+ */
+final class Lookahead {
+    static final int BLOCK = 4096;
+
+    private final int[] table;
+    private final byte[] classMap;
+    private final int classCount;
+    private final int stateCount;
+    private final int reject;
+    private final IntUnaryOperator text;
+    private final int from;
+    private final int limit;
+    private final BitSet accepting;
+    private final Map<BitSet, Integer> index = new HashMap<>();
+    private final List<BitSet> sets = new ArrayList<>();
+    private final List<int[]> before = new ArrayList<>();      // by set and class, the set one character back, or -1
+    private final int endSet;       // the set at the end of the text
+    private final int[] checkpoints;        // the set at from + j * BLOCK
+    private final int[] block = new int[BLOCK + 1];
+    private int blockNumber = -1;
+
+    /**
+     * @param table      the premultiplied table of an anchored DFA, with accepting states from accept and the reject
+     *                   state after them
+     * @param text       the character at each position
+     * @param from       the first position a match may start at
+     * @param limit      the end of the text
+     */
+    Lookahead(int[] table, byte[] classMap, int classCount, int accept, int reject, IntUnaryOperator text, int from,
+              int limit) {
+        this.table = table;
+        this.classMap = classMap;
+        this.classCount = classCount;
+        this.reject = reject;
+        this.text = text;
+        this.from = from;
+        this.limit = limit;
+        stateCount = table.length / classCount;
+        accepting = new BitSet(stateCount);
+        for (int s = accept; s < table.length; s += classCount) {
+            if (s != reject)
+                accepting.set(s / classCount);
+        }
+        endSet = intern((BitSet) accepting.clone());
+        checkpoints = new int[(limit - from) / BLOCK + 1];
+        int set = endSet;
+        for (int q = limit; ; q--) {
+            if ((q - from) % BLOCK == 0)
+                checkpoints[(q - from) / BLOCK] = set;
+            if (q == from)
+                break;
+            set = before(set, text.applyAsInt(q - 1));
+        }
+    }
+
+    /**
+     * @return true if the premultiplied state, reached at position q, can still reach an accepting state
+     */
+    boolean isLive(int state, int q) {
+        return state != reject && sets.get(setAt(q)).get(state / classCount);
+    }
+
+    private int setAt(int q) {
+        int offset = q - from;
+        int number = offset / BLOCK;
+        if (number != blockNumber) {
+            int start = from + number * BLOCK;
+            int end = Math.min(limit, start + BLOCK);
+            int set = end == limit ? endSet : checkpoints[number + 1];
+            block[end - start] = set;
+            for (int r = end; r != start; r--) {
+                set = before(set, text.applyAsInt(r - 1));
+                block[r - 1 - start] = set;
+            }
+            blockNumber = number;
+        }
+        return block[offset - number * BLOCK];
+    }
+
+    // the set at the position before a character, given the set after it
+    private int before(int set, int c) {
+        int k = classMap[c] & 0xFF;
+        int[] row = before.get(set);
+        if (row[k] < 0) {
+            BitSet after = sets.get(set);
+            BitSet live = (BitSet) accepting.clone();
+            for (int s = 0; s != stateCount; s++) {
+                int next = table[s * classCount + k];
+                if (next != reject && after.get(next / classCount))
+                    live.set(s);
+            }
+            row[k] = intern(live);
+        }
+        return row[k];
+    }
+
+    private int intern(BitSet set) {
+        Integer number = index.get(set);
+        if (number == null) {
+            number = sets.size();
+            index.put(set, number);
+            sets.add(set);
+            int[] row = new int[classCount];
+            Arrays.fill(row, -1);
+            before.add(row);
+        }
+        return number;
+    }
+}
@@ -0,0 +1,13 @@
+package com.controlj.regexc;
+
+/**
+ * Receives the matches found by a {@link StreamSearcher}, as absolute offsets in the stream.
+ */
+public interface MatchListener {
+    /**
+     * @param start the offset of the first byte of the match, or -1 if it lies before the history the searcher
+     *              retained
+     * @param end   the offset after the last byte of the match
+     */
+    void matched(long start, long end);
+}
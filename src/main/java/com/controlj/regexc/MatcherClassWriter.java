@@ -0,0 +1,298 @@
+package com.controlj.regexc;
+
+import com.controlj.regexc.util.CommonSets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assembles the class file of a {@link BytecodeMatcher} subclass from a flat DFA table. Each state becomes a block of
+ * code that reads a character and branches straight to the block of the next state, with range compares or a
+ * {@code tableswitch}, whichever is shorter, so no table is loaded while matching.
+ * <p>
+ * The class file is version 49, which needs no stack map frames; the JVM still verifies it by type inference.
+ */
+final class MatcherClassWriter {
+    private static final int VERSION = 49;
+    // local variables of both generated methods, after this in 0, the input in 1 and the character in 2
+    private static final int INDEX = 3;
+    private static final int END = 4;
+
+    private final int[] table;
+    private final byte[] classMap;
+    private final int classCount;
+    private final int initState;
+    private final int rejectState;
+    private final int acceptState;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> constants = new HashMap<>();
+    private int poolCount = 1;
+
+    MatcherClassWriter(int[] table, byte[] classMap, int classCount, int initState, int rejectState, int acceptState) {
+        this.table = table;
+        this.classMap = classMap;
+        this.classCount = classCount;
+        this.initState = initState;
+        this.rejectState = rejectState;
+        this.acceptState = acceptState;
+    }
+
+    // a method body under construction, with branches to labels patched once the labels are placed
+    private static final class Code {
+        private byte[] code = new byte[256];
+        private int length;
+        private final int[] labels;
+        private final List<int[]> fixups = new ArrayList<>();    // {label, instruction start, offset position, size}
+
+        Code(int labelCount) {
+            labels = new int[labelCount];
+        }
+
+        void op(int... bytes) {
+            for (int b : bytes)
+                u1(b);
+        }
+
+        void u1(int b) {
+            if (length == code.length)
+                code = Arrays.copyOf(code, length * 2);
+            code[length++] = (byte) b;
+        }
+
+        void u2(int v) {
+            u1(v >> 8);
+            u1(v);
+        }
+
+        void u4(int v) {
+            u2(v >> 16);
+            u2(v);
+        }
+
+        void place(int label) {
+            labels[label] = length;
+        }
+
+        void branch(int opcode, int label) {
+            int start = length;
+            u1(opcode);
+            fixups.add(new int[]{label, start, length, 2});
+            u2(0);
+        }
+
+        // a 4 byte offset, within a switch starting at start
+        void offset(int start, int label) {
+            fixups.add(new int[]{label, start, length, 4});
+            u4(0);
+        }
+
+        void push(int value) {
+            if (value <= 5)
+                op(0x03 + value);           // iconst_n
+            else if (value <= 127)
+                op(0x10, value);            // bipush
+            else
+                op(0x11, value >> 8, value);  // sipush
+        }
+
+        byte[] finish() {
+            for (int[] fixup : fixups) {
+                int offset = labels[fixup[0]] - fixup[1];
+                for (int i = fixup[3] - 1, at = fixup[2]; i >= 0; i--, at++)
+                    code[at] = (byte) (offset >> (8 * i));
+            }
+            return Arrays.copyOf(code, length);
+        }
+    }
+
+    private int constant(String key, int tag, int... values) throws IOException {
+        Integer index = constants.get(key);
+        if (index != null)
+            return index;
+        poolOut.writeByte(tag);
+        for (int value : values)
+            poolOut.writeShort(value);
+        constants.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private int utf8(String s) throws IOException {
+        Integer index = constants.get("U" + s);
+        if (index != null)
+            return index;
+        poolOut.writeByte(1);
+        poolOut.writeUTF(s);
+        constants.put("U" + s, poolCount);
+        return poolCount++;
+    }
+
+    private int classRef(String name) throws IOException {
+        return constant("C" + name, 7, utf8(name));
+    }
+
+    private int methodRef(int tag, String owner, String name, String descriptor) throws IOException {
+        int nameAndType = constant("N" + name + descriptor, 12, utf8(name), utf8(descriptor));
+        return constant("M" + owner + '.' + name + descriptor, tag, classRef(owner), nameAndType);
+    }
+
+    // the code of matches(CharSequence), or of matches(byte[], int, int) if bytes is true
+    private byte[] matchCode(boolean bytes) throws IOException {
+        int states = table.length / classCount;
+        int fail = states;
+        int succeed = states + 1;
+        Code code = new Code(states + 2);
+        if (bytes) {
+            // end = offset + length; index = offset
+            code.op(0x1D, 0x1C, 0x60, 0x36, END);     // iload_3 iload_2 iadd istore
+            code.op(0x1C, 0x3E);                        // iload_2 istore_3
+        } else {
+            int length = methodRef(11, "java/lang/CharSequence", "length", "()I");
+            code.op(0x03, 0x3E);                        // iconst_0 istore_3
+            code.op(0x2B, 0xB9, length >> 8, length, 1, 0);     // aload_1 invokeinterface
+            code.op(0x36, END);                         // istore
+        }
+        int charAt = bytes ? 0 : methodRef(11, "java/lang/CharSequence", "charAt", "(I)C");
+        code.branch(0xA7, initState / classCount);      // goto
+        int[] targets = new int[CommonSets.ENCODING_LENGTH];
+        for (int s = 0; s != states; s++) {
+            if (s * classCount == rejectState)
+                continue;
+            code.place(s);
+            code.op(0x1D, 0x15, END);                   // iload_3 iload
+            code.branch(0x9F, s * classCount >= acceptState ? succeed : fail);    // if_icmpeq
+            code.op(0x2B, 0x1D);                        // aload_1 iload_3
+            if (bytes) {
+                code.op(0x33);                          // baload
+                code.op(0x11, 0, 0xFF, 0x7E);           // sipush 255 iand
+            } else {
+                code.op(0xB9, charAt >> 8, charAt, 2, 0);   // invokeinterface
+            }
+            code.op(0x3D, 0x84, INDEX, 1);              // istore_2 iinc
+            for (int ch = 0; ch != targets.length; ch++) {
+                int next = table[s * classCount + (classMap[ch] & 0xFF)];
+                targets[ch] = next == rejectState ? fail : next / classCount;
+            }
+            dispatch(code, targets, fail);
+        }
+        code.place(fail);
+        code.op(0x03, 0xAC);                            // iconst_0 ireturn
+        code.place(succeed);
+        code.op(0x04, 0xAC);                            // iconst_1 ireturn
+        return code.finish();
+    }
+
+    // branch on the character to the label for it, or to fail
+    private static void dispatch(Code code, int[] targets, int fail) {
+        int low = 0;
+        while (low != targets.length && targets[low] == fail)
+            low++;
+        if (low == targets.length) {
+            code.branch(0xA7, fail);
+            return;
+        }
+        int high = targets.length - 1;
+        while (targets[high] == fail)
+            high--;
+        int ranges = 0;
+        for (int ch = low; ch <= high; ch++) {
+            if (ch == low || targets[ch] != targets[ch - 1])
+                ranges++;
+        }
+        if (16 + 4 * (high - low + 1) < 14 * ranges) {
+            int start = code.length;
+            code.op(0x1C, 0xAA);                        // iload_2 tableswitch
+            start++;
+            while (code.length % 4 != 0)
+                code.u1(0);
+            code.offset(start, fail);
+            code.u4(low);
+            code.u4(high);
+            for (int ch = low; ch <= high; ch++)
+                code.offset(start, targets[ch]);
+            return;
+        }
+        // ranges in ascending order: below the first in a gap fails, otherwise up to its end takes its branch
+        int previous = -1;
+        for (int ch = low; ch <= high; ) {
+            int end = ch;
+            while (end < high && targets[end + 1] == targets[ch])
+                end++;
+            if (targets[ch] != fail) {
+                if (ch > previous + 1) {
+                    code.op(0x1C);                      // iload_2
+                    code.push(ch);
+                    code.branch(0xA1, fail);            // if_icmplt
+                }
+                code.op(0x1C);
+                code.push(end);
+                code.branch(0xA4, targets[ch]);         // if_icmple
+                previous = end;
+            }
+            ch = end + 1;
+        }
+        code.branch(0xA7, fail);
+    }
+
+    private void method(DataOutputStream out, String name, String descriptor, int maxStack, int maxLocals,
+                        byte[] code) throws IOException {
+        out.writeShort(0x0001);                         // public
+        out.writeShort(utf8(name));
+        out.writeShort(utf8(descriptor));
+        out.writeShort(1);
+        out.writeShort(utf8("Code"));
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);                              // exception table
+        out.writeShort(0);                              // attributes
+    }
+
+    /**
+     * @param name     the internal name of the class
+     * @param maxCode  the most bytes of code allowed in a method
+     * @return the class file, or null if a method would be longer than maxCode
+     */
+    byte[] write(String name, int maxCode) throws IOException {
+        String superName = BytecodeMatcher.class.getName().replace('.', '/');
+        int thisClass = classRef(name);
+        int superClass = classRef(superName);
+        int superInit = methodRef(10, superName, "<init>", "()V");
+        byte[] chars = matchCode(false);
+        byte[] bytes = matchCode(true);
+        if (chars.length > maxCode || bytes.length > maxCode)
+            return null;
+        ByteArrayOutputStream methods = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(methods);
+        Code init = new Code(0);
+        init.op(0x2A, 0xB7, superInit >> 8, superInit, 0xB1);     // aload_0 invokespecial return
+        method(out, "<init>", "()V", 1, 1, init.finish());
+        method(out, "matches", "(Ljava/lang/CharSequence;)Z", 2, END + 1, chars);
+        method(out, "matches", "([BII)Z", 2, END + 1, bytes);
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        DataOutputStream classOut = new DataOutputStream(file);
+        classOut.writeInt(0xCAFEBABE);
+        classOut.writeShort(0);
+        classOut.writeShort(VERSION);
+        classOut.writeShort(poolCount);
+        pool.writeTo(classOut);
+        classOut.writeShort(0x0031);                    // public final super
+        classOut.writeShort(thisClass);
+        classOut.writeShort(superClass);
+        classOut.writeShort(0);                         // interfaces
+        classOut.writeShort(0);                         // fields
+        classOut.writeShort(3);
+        methods.writeTo(classOut);
+        classOut.writeShort(0);                         // attributes
+        return file.toByteArray();
+    }
+}
@@ -0,0 +1,300 @@
+package com.controlj.regexc;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Searches a large buffer on several threads, reporting the same matches, in the same order, as a
+ * {@link RegexSearcher} would.
+ * <p>
+ * The input is split into chunks, and each chunk is searched speculatively on a {@link ForkJoinPool} as if a match
+ * had just ended at its start, recording the forward DFA state every {@link #STRIDE} bytes. The results are then
+ * merged in order by continuing the true search into each chunk until it agrees with the speculative one: either
+ * both report a match with the same end, after which they are identical, or both have the same forward DFA state
+ * at a recorded position before either has found a match, in which case the true search can skip to where the
+ * speculative forward scan found its next match. The forward DFA usually agrees within a few bytes, so merging costs
+ * little and the speedup is close to the number of cores.
+ */
+public class ParallelSearcher {
+    public static final int MIN_CHUNK_SIZE = 64 * 1024;     // smallest automatic chunk size
+    static final int STRIDE = 256;      // bytes between recorded forward DFA states
+
+    private final SearchPattern pattern;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int chunkSize;      // zero for automatic
+
+    public ParallelSearcher(String regex, RegexSearcher.Mode mode) {
+        pattern = new SearchPattern(regex, mode, null);
+    }
+
+    /**
+     * Create a parallel searcher using the compiled pattern of a {@link RegexSearcher}.
+     */
+    public ParallelSearcher(RegexSearcher searcher) {
+        pattern = searcher.getPattern();
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @param chunkSize the number of bytes searched by each task, or 0 to choose from the input size and the
+     *                  parallelism of the pool
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 0)
+            throw new IllegalArgumentException("chunk size must not be negative");
+        this.chunkSize = chunkSize;
+    }
+
+    public void search(byte[] bytes, int offset, int length, MatchListener listener) {
+        search(ByteBuffer.wrap(bytes, offset, length), listener);
+    }
+
+    /**
+     * Search the bytes between the position and limit of a buffer, reporting matches as buffer indices. The buffer
+     * is not changed.
+     */
+    public void search(ByteBuffer buffer, MatchListener listener) {
+        int from = buffer.position();
+        int to = buffer.limit();
+        int size = chunkSize;
+        if (size == 0)
+            size = Math.max(MIN_CHUNK_SIZE, (to - from) / (pool.getParallelism() * 4) + 1);
+        List<Chunk> chunks = new ArrayList<>();
+        for (int start = from; start < to; start += Math.min(size, to - start))
+            chunks.add(new Chunk(buffer, start, (int) Math.min((long) start + size, to)));
+        for (Chunk chunk : chunks)
+            pool.execute(chunk);
+        Scanner scanner = new Scanner(pattern, buffer, from);
+        for (Chunk chunk : chunks) {
+            chunk.join();
+            merge(scanner, chunk, listener);
+        }
+    }
+
+    // continue the true search through a chunk, using the speculative results once the two agree
+    private void merge(Scanner scanner, Chunk chunk, MatchListener listener) {
+        while (scanner.pos < chunk.to) {
+            if (scanner.state == pattern.forwardInit && scanner.restart == scanner.pos) {
+                int first = scanner.pos == chunk.from ? 0 : chunk.afterEnd(scanner.pos);
+                if (first >= 0) {
+                    for (int i = first; i != chunk.count; i++)
+                        listener.matched(chunk.matches[i * 4 + 2], chunk.matches[i * 4 + 3]);
+                    scanner.pos = chunk.endPosition;
+                    scanner.restart = chunk.endRestart;
+                    scanner.state = chunk.endState;
+                    scanner.found = chunk.endFound;
+                    return;
+                }
+            }
+            boolean found = false;
+            while (scanner.pos != chunk.to) {
+                // a match found in an earlier chunk may end before this one
+                int offset = scanner.pos - chunk.from;
+                if (offset >= 0 && offset % STRIDE == 0 && scanner.found < 0
+                        && chunk.states[offset / STRIDE] == scanner.state) {
+                    // the forward DFA agrees with the speculative search, so skip to its next match
+                    int next = chunk.afterForwardEnd(scanner.pos);
+                    if (next < 0) {
+                        scanner.pos = chunk.to;
+                        scanner.state = chunk.endState;
+                        scanner.found = chunk.endFound;
+                        return;
+                    }
+                    scanner.found = chunk.matches[next * 4];
+                    scanner.pos = chunk.matches[next * 4 + 1];
+                    found = true;
+                    break;
+                }
+                int stop = offset < 0 ? chunk.from : Math.min(chunk.to, chunk.from + (offset / STRIDE + 1) * STRIDE);
+                if (scanner.forward(stop)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found)
+                return;
+            int end = scanner.found;
+            listener.matched(scanner.reverse(), end);
+            scanner.matched(end);
+        }
+    }
+
+    // the search state, over the whole buffer
+    private static final class Scanner {
+        final SearchPattern pattern;
+        final ByteBuffer buffer;
+        final byte[] array;
+        final int base;
+        final int limit;
+        int pos;
+        int restart;
+        int state;
+        int found;      // end of the match found by the forward DFA so far, or -1
+
+        Scanner(SearchPattern pattern, ByteBuffer buffer, int pos) {
+            this.pattern = pattern;
+            this.buffer = buffer;
+            array = buffer.hasArray() ? buffer.array() : null;
+            base = buffer.hasArray() ? buffer.arrayOffset() : 0;
+            limit = buffer.limit();
+            this.pos = restart = pos;
+            state = pattern.forwardInit;
+            found = -1;
+        }
+
+        int at(int i) {
+            return array != null ? array[base + i] & 0xFF : buffer.get(i) & 0xFF;
+        }
+
+        // run the forward DFA up to stop, returning true once the end of the next match is known
+        boolean forward(int stop) {
+            int[] table = pattern.forwardTable;
+            byte[] classMap = pattern.forwardClassMap;
+            int accept = pattern.forwardAccept;
+            int stopState = pattern.forwardStop;
+            int reject = pattern.forwardReject;
+            int s = state;
+            int i = pos;
+            if (array != null) {
+                byte[] bytes = array;
+                int offset = base;
+                while (i != stop) {
+                    s = table[s + (classMap[bytes[offset + i++] & 0xFF] & 0xFF)];
+                    if (s >= accept) {
+                        if (s != reject)
+                            found = i;
+                        if (s >= stopState)
+                            break;
+                    }
+                }
+            } else {
+                while (i != stop) {
+                    s = table[s + (classMap[buffer.get(i++) & 0xFF] & 0xFF)];
+                    if (s >= accept) {
+                        if (s != reject)
+                            found = i;
+                        if (s >= stopState)
+                            break;
+                    }
+                }
+            }
+            state = s;
+            pos = i;
+            return s >= stopState || i == limit && found >= 0;
+        }
+
+        // the leftmost start of a match ending at found
+        int reverse() {
+            int[] table = pattern.reverseTable;
+            byte[] classMap = pattern.reverseClassMap;
+            int start = found;
+            int s = pattern.reverseInit;
+            for (int i = found - 1; i >= restart; i--) {
+                s = table[s + (classMap[at(i)] & 0xFF)];
+                if (s == pattern.reverseReject)
+                    break;
+                if (s >= pattern.reverseAccept)
+                    start = i;
+            }
+            return start;
+        }
+
+        void matched(int end) {
+            pos = restart = end;
+            state = pattern.forwardInit;
+            found = -1;
+        }
+    }
+
+    // a speculative search of one chunk, as if a match had just ended at its start
+    private final class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final ByteBuffer buffer;
+        final int from;
+        final int to;
+        // forward DFA state at every STRIDE bytes from the start, or -1 if not scanned there before finding a match
+        int[] states;
+        int[] matches = new int[64];     // forward end, position the forward DFA stopped at, start and end of each match
+        int count;
+        // the search state after the last match
+        int endPosition;
+        int endRestart;
+        int endState;
+        int endFound;
+
+        Chunk(ByteBuffer buffer, int from, int to) {
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            states = new int[(to - from + STRIDE - 1) / STRIDE];
+            Arrays.fill(states, -1);
+            Scanner scanner = new Scanner(pattern, buffer, from);
+            while (scanner.pos < to && scan(scanner)) {
+                int end = scanner.found;
+                int start = scanner.reverse();
+                if (count * 4 == matches.length)
+                    matches = Arrays.copyOf(matches, matches.length * 2);
+                matches[count * 4] = scanner.found;
+                matches[count * 4 + 1] = scanner.pos;
+                matches[count * 4 + 2] = start;
+                matches[count * 4 + 3] = end;
+                count++;
+                scanner.matched(end);
+            }
+            endPosition = scanner.pos;
+            endRestart = scanner.restart;
+            endState = scanner.state;
+            endFound = scanner.found;
+        }
+
+        // run the forward DFA to the next match or the end of the chunk, recording its states on the way
+        private boolean scan(Scanner scanner) {
+            while (scanner.pos != to) {
+                int offset = scanner.pos - from;
+                if (offset % STRIDE == 0 && scanner.found < 0)
+                    states[offset / STRIDE] = scanner.state;
+                if (scanner.forward(Math.min(to, from + (offset / STRIDE + 1) * STRIDE)))
+                    return true;
+            }
+            return false;
+        }
+
+        // the index of the match after the one ending at end, or -1 if no match ends there
+        int afterEnd(int end) {
+            int i = search(3, end);
+            return i < count && matches[i * 4 + 3] == end ? i + 1 : -1;
+        }
+
+        // the index of the first match whose forward end is after pos, or -1 if there is none
+        int afterForwardEnd(int pos) {
+            int i = search(0, pos + 1);
+            return i < count ? i : -1;
+        }
+
+        // the index of the first match whose field is at least value, the fields being increasing
+        private int search(int field, int value) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (matches[mid * 4 + field] < value)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+    }
+}
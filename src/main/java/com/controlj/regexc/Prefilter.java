@@ -0,0 +1,192 @@
+package com.controlj.regexc;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Screens input for a set of literals, found by {@link com.controlj.regexc.tree.RequiredLiterals}, one of which any
+ * match must contain. Several literals are found at once with an Aho-Corasick automaton, which takes one table
+ * lookup per character. To check whether an input contains any of a few literals, a separate skipping scan for each
+ * with a {@link LiteralScanner} is faster, but finding the first of them that way is not linear in the input.
+ */
+final class Prefilter {
+    private static final int MAX_SCANNERS = 4;      // most literals searched for separately
+    private static final int ALPHABET = 256;
+
+    private final LiteralScanner[] scanners;
+    // Aho-Corasick goto function with failure links folded in, premultiplied by ALPHABET
+    private final int[] table;
+    // length of a literal ending in each state, or 0
+    private final int[] found;
+
+    Prefilter(List<String> literals) {
+        if (literals.size() <= MAX_SCANNERS) {
+            scanners = new LiteralScanner[literals.size()];
+            for (int i = 0; i != scanners.length; i++)
+                scanners[i] = new LiteralScanner(literals.get(i));
+        } else {
+            scanners = null;
+        }
+        if (literals.size() == 1) {
+            table = null;
+            found = null;
+            return;
+        }
+        // build the trie, with -1 for a missing edge
+        int size = 1;
+        for (String literal : literals)
+            size += literal.length();
+        int[] trie = new int[size * ALPHABET];
+        Arrays.fill(trie, -1);
+        int[] length = new int[size];
+        int states = 1;
+        for (String literal : literals) {
+            int s = 0;
+            for (int i = 0; i != literal.length(); i++) {
+                int next = trie[s * ALPHABET + literal.charAt(i)];
+                if (next < 0) {
+                    next = states++;
+                    trie[s * ALPHABET + literal.charAt(i)] = next;
+                }
+                s = next;
+            }
+            length[s] = literal.length();
+        }
+        // breadth first, replacing missing edges with those of the failure state
+        table = new int[states * ALPHABET];
+        found = new int[states];
+        int[] fail = new int[states];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c != ALPHABET; c++) {
+            int next = trie[c];
+            if (next > 0) {
+                table[c] = next * ALPHABET;
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.remove();
+            found[s] = length[s] != 0 ? length[s] : found[fail[s]];
+            for (int c = 0; c != ALPHABET; c++) {
+                int next = trie[s * ALPHABET + c];
+                if (next > 0) {
+                    fail[next] = table[fail[s] * ALPHABET + c] / ALPHABET;
+                    table[s * ALPHABET + c] = next * ALPHABET;
+                    queue.add(next);
+                } else {
+                    table[s * ALPHABET + c] = table[fail[s] * ALPHABET + c];
+                }
+            }
+        }
+    }
+
+    boolean contains(String str, int from, int to) {
+        if (scanners == null)
+            return indexOf(str, from, to) >= 0;
+        for (LiteralScanner scanner : scanners) {
+            if (scanner.indexOf(str, from, to) >= 0)
+                return true;
+        }
+        return false;
+    }
+
+    boolean contains(CharSequence str, int from, int to) {
+        if (scanners == null)
+            return indexOf(str, from, to) >= 0;
+        for (LiteralScanner scanner : scanners) {
+            if (scanner.indexOf(str, from, to) >= 0)
+                return true;
+        }
+        return false;
+    }
+
+    boolean contains(char[] chars, int from, int to) {
+        if (scanners == null)
+            return indexOf(chars, from, to) >= 0;
+        for (LiteralScanner scanner : scanners) {
+            if (scanner.indexOf(chars, from, to) >= 0)
+                return true;
+        }
+        return false;
+    }
+
+    boolean contains(byte[] bytes, int from, int to) {
+        if (scanners == null)
+            return indexOf(bytes, from, to) >= 0;
+        for (LiteralScanner scanner : scanners) {
+            if (scanner.indexOf(bytes, from, to) >= 0)
+                return true;
+        }
+        return false;
+    }
+
+    boolean contains(ByteBuffer buffer, int from, int to) {
+        if (scanners == null)
+            return indexOf(buffer, from, to) >= 0;
+        for (LiteralScanner scanner : scanners) {
+            if (scanner.indexOf(buffer, from, to) >= 0)
+                return true;
+        }
+        return false;
+    }
+
+    // the start of the first literal found at or after from that ends by to, or -1
+    int indexOf(String str, int from, int to) {
+        if (table == null)
+            return scanners[0].indexOf(str, from, to);
+        return indexOf((CharSequence) str, from, to);
+    }
+
+    int indexOf(CharSequence str, int from, int to) {
+        if (table == null)
+            return scanners[0].indexOf(str, from, to);
+        int s = 0;
+        for (int i = from; i != to; i++) {
+            char c = str.charAt(i);
+            s = c < ALPHABET ? table[s + c] : 0;
+            if (found[s / ALPHABET] != 0)
+                return i + 1 - found[s / ALPHABET];
+        }
+        return -1;
+    }
+
+    int indexOf(char[] chars, int from, int to) {
+        if (table == null)
+            return scanners[0].indexOf(chars, from, to);
+        int s = 0;
+        for (int i = from; i != to; i++) {
+            char c = chars[i];
+            s = c < ALPHABET ? table[s + c] : 0;
+            if (found[s / ALPHABET] != 0)
+                return i + 1 - found[s / ALPHABET];
+        }
+        return -1;
+    }
+
+    int indexOf(byte[] bytes, int from, int to) {
+        if (table == null)
+            return scanners[0].indexOf(bytes, from, to);
+        int s = 0;
+        for (int i = from; i != to; i++) {
+            s = table[s + (bytes[i] & 0xFF)];
+            if (found[s / ALPHABET] != 0)
+                return i + 1 - found[s / ALPHABET];
+        }
+        return -1;
+    }
+
+    int indexOf(ByteBuffer buffer, int from, int to) {
+        if (table == null)
+            return scanners[0].indexOf(buffer, from, to);
+        int s = 0;
+        for (int i = from; i != to; i++) {
+            s = table[s + (buffer.get(i) & 0xFF)];
+            if (found[s / ALPHABET] != 0)
+                return i + 1 - found[s / ALPHABET];
+        }
+        return -1;
+    }
+}
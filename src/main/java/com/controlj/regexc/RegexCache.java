@@ -0,0 +1,237 @@
+package com.controlj.regexc;
+
+import com.controlj.regexc.util.CompileOptions;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A thread-safe cache of compiled patterns, keyed by the pattern text and the engine or search mode. Compiling runs
+ * the whole syntax tree to NFA to DFA pipeline, so patterns built on request paths should be fetched from here.
+ * <p>
+ * Each entry is weighed by the approximate size of its tables, and the least recently used entries are evicted
+ * once the total weight exceeds the limit. When several threads miss on the same key at once, only one compiles
+ * it and the others wait for the result. A pattern that fails to compile is not cached, and every thread waiting for
+ * it gets the exception.
+ * <p>
+ * Matchers are shared between threads. Searchers hold the state of a search, so each call returns a new one
+ * sharing the cached pattern.
+ */
+public class RegexCache {
+    public static final long DEFAULT_MAX_WEIGHT = 64L * 1024 * 1024;
+
+    private final long maxWeight;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private volatile CompileListener compileListener;
+    private volatile CompileOptions compileOptions;
+
+    private static final class Key {
+        final String regex;
+        final Enum<?> options;
+
+        Key(String regex, Enum<?> options) {
+            this.regex = regex;
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key key = (Key) o;
+            return regex.equals(key.regex) && options == key.options;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(regex, options);
+        }
+    }
+
+    private static final class Entry {
+        final FutureTask<Object> task;
+        long weight = -1;       // not known until compiled
+
+        Entry(FutureTask<Object> task) {
+            this.task = task;
+        }
+    }
+
+    public RegexCache() {
+        this(DEFAULT_MAX_WEIGHT);
+    }
+
+    /**
+     * @param maxWeight the total approximate size in bytes of the patterns to keep
+     */
+    public RegexCache(long maxWeight) {
+        if (maxWeight < 0)
+            throw new IllegalArgumentException("maximum weight must not be negative");
+        this.maxWeight = maxWeight;
+    }
+
+    public RegexMatcher getMatcher(String regex) {
+        return getMatcher(regex, RegexMatcher.Engine.AUTO);
+    }
+
+    public RegexMatcher getMatcher(String regex, RegexMatcher.Engine engine) {
+        return (RegexMatcher) get(new Key(regex, engine));
+    }
+
+    /**
+     * @return a new searcher, sharing the cached compiled pattern
+     */
+    public RegexSearcher getSearcher(String regex, RegexSearcher.Mode mode) {
+        return new RegexSearcher((SearchPattern) get(new Key(regex, mode)));
+    }
+
+    private Object compile(Key key) {
+        CompileOptions options = compileOptions;
+        if (key.options instanceof RegexSearcher.Mode)
+            return new SearchPattern(key.regex, (RegexSearcher.Mode) key.options, options);
+        return new RegexMatcher(key.regex, (RegexMatcher.Engine) key.options, options);
+    }
+
+    private static long weigh(Object compiled) {
+        if (compiled instanceof SearchPattern)
+            return ((SearchPattern) compiled).getMemorySize();
+        return ((RegexMatcher) compiled).getMemorySize();
+    }
+
+    private static CompileStatistics statistics(Object compiled) {
+        if (compiled instanceof SearchPattern)
+            return ((SearchPattern) compiled).statistics;
+        return ((RegexMatcher) compiled).getStatistics();
+    }
+
+    private Object get(Key key) {
+        Entry entry;
+        boolean owner = false;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null) {
+                hitCount++;
+            } else {
+                missCount++;
+                entry = new Entry(new FutureTask<>(() -> compile(key)));
+                entries.put(key, entry);
+                owner = true;
+            }
+        }
+        if (owner) {
+            entry.task.run();
+            added(key, entry);
+            Object compiled = result(entry.task);       // throws if the compile failed
+            CompileListener listener = compileListener;
+            if (listener != null)
+                listener.compiled(key.regex, statistics(compiled));
+            return compiled;
+        }
+        return result(entry.task);
+    }
+
+    // account for a newly compiled entry, or drop it if it failed
+    private synchronized void added(Key key, Entry entry) {
+        if (entries.get(key) != entry)
+            return;     // cleared while compiling
+        try {
+            entry.weight = weigh(result(entry.task));
+        } catch (RuntimeException | Error e) {
+            entries.remove(key);
+            return;
+        }
+        weight += entry.weight;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            if (eldest.weight < 0)
+                continue;       // still compiling
+            iterator.remove();
+            weight -= eldest.weight;
+            evictionCount++;
+        }
+    }
+
+    // wait for a compilation, rethrowing what it threw
+    private static Object result(FutureTask<Object> task) {
+        boolean interrupted = false;
+        try {
+            for (; ; ) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException)
+                        throw (RuntimeException) cause;
+                    if (cause instanceof Error)
+                        throw (Error) cause;
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param compileListener told about each pattern this cache compiles, or null
+     */
+    public void setCompileListener(CompileListener compileListener) {
+        this.compileListener = compileListener;
+    }
+
+    /**
+     * @param compileOptions limits on compiling patterns, or null for none. A pattern that exceeds them fails like
+     *                       any other and is not cached. Patterns already cached are kept.
+     */
+    public void setCompileOptions(CompileOptions compileOptions) {
+        this.compileOptions = compileOptions;
+    }
+
+    /**
+     * Remove every pattern. Compilations in progress still complete for the threads waiting on them.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the total weight of the compiled patterns held
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RegexCache{size=" + entries.size() + ", weight=" + weight + ", hits=" + hitCount + ", misses="
+                + missCount + ", evictions=" + evictionCount + '}';
+    }
+}
@@ -1,41 +1,244 @@
 package com.controlj.regexc;
 
 import com.controlj.regexc.automata.DFA;
+import com.controlj.regexc.automata.GlushkovNFA;
+import com.controlj.regexc.automata.LazyDFA;
 import com.controlj.regexc.automata.NFA;
+import com.controlj.regexc.tree.RequiredLiterals;
 import com.controlj.regexc.tree.SyntaxTree;
+import com.controlj.regexc.util.CommonSets;
+import com.controlj.regexc.util.CompileLimitException;
+import com.controlj.regexc.util.CompileOptions;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 
 /**
  * Created on 2015/5/11.
  */
 public class RegexMatcher {
-    private int[][] transitionTable;
+    /**
+     * The ways a pattern can be compiled for matching.
+     */
+    public enum Engine {
+        /**
+         * Build the complete DFA up front. Fastest matching, but some patterns need exponentially many states.
+         */
+        DFA,
+        /**
+         * Build DFA states only as the input reaches them, in a cache of bounded size.
+         */
+        LAZY_DFA,
+        /**
+         * Simulate the position automaton with bit-parallelism. Almost no compile time, but only for patterns of at
+         * most {@link GlushkovNFA#MAX_POSITIONS} characters without actions. Falls back to {@link #DFA} for others.
+         */
+        BIT_PARALLEL,
+        /**
+         * Build the complete DFA and compile it to bytecode, with a branch for each transition instead of a table
+         * lookup. Falls back to {@link #DFA} when the code would be too long, see {@link BytecodeMatcher}.
+         */
+        BYTECODE,
+        /**
+         * Use {@link #BIT_PARALLEL} when the pattern is small enough, otherwise {@link #DFA}.
+         */
+        AUTO
+    }
+
+    private int[] transitionTable;
+    private byte[] classMap;
     private int is;
     private int rs;
-    private boolean[] fs;
+    private int as;
+    private LazyDFA lazyDFA;
+    private GlushkovNFA glushkovNFA;
+    private BytecodeMatcher bytecodeMatcher;
+    private Prefilter prefilter;        // literals any match contains, checked before the automaton runs
+    private CompileStatistics statistics;
+    private Engine engine;              // the engine actually used
 
     public RegexMatcher(String regex) {
-        compile(regex);
+        this(regex, Engine.AUTO);
+    }
+
+    public RegexMatcher(String regex, Engine engine) {
+        this(regex, engine, null);
+    }
+
+    /**
+     * @param options limits on compiling the pattern, or null for none. When the DFA exceeds them and fallback is
+     *                allowed a lazy DFA is used instead, otherwise a {@link CompileLimitException} is thrown.
+     */
+    public RegexMatcher(String regex, Engine engine, CompileOptions options) {
+        compile(regex, engine, options == null ? new CompileOptions().start() : options.start());
+    }
+
+    private void compile(String regex, Engine engine, CompileOptions options) {
+        SyntaxTree syntaxTree = new SyntaxTree(regex, null, options);
+        RequiredLiterals required = new RequiredLiterals(syntaxTree.getRoot());
+        if (!required.getLiterals().isEmpty() && !required.isPrefix())
+            prefilter = new Prefilter(required.getLiterals());
+        if (engine == Engine.AUTO || engine == Engine.BIT_PARALLEL)
+            engine = GlushkovNFA.countPositions(syntaxTree.getRoot()) < 0 ? Engine.DFA : Engine.BIT_PARALLEL;
+        this.engine = engine;
+        if (engine == Engine.BIT_PARALLEL) {
+            glushkovNFA = new GlushkovNFA(syntaxTree.getRoot());
+            statistics = new CompileStatistics(syntaxTree, null);
+            return;
+        }
+        NFA nfa = new NFA(syntaxTree.getRoot(), options);
+        DFA dfa = null;
+        if (engine != Engine.LAZY_DFA) {
+            try {
+                dfa = new DFA(nfa.getStateList(), options);
+            } catch (CompileLimitException e) {
+                if (!options.isFallback())
+                    throw e;
+                this.engine = Engine.LAZY_DFA;
+            }
+        }
+        if (dfa == null) {
+            lazyDFA = new LazyDFA(nfa.getStateList());
+            statistics = new CompileStatistics(syntaxTree, nfa);
+            return;
+        }
+        statistics = new CompileStatistics(syntaxTree, nfa, dfa);
+        transitionTable = dfa.getFlatTable();
+        classMap = dfa.getClassMap();
+        is = dfa.getFlatInitState();
+        rs = dfa.getFlatRejectState();
+        as = dfa.getFlatAcceptState();
+        if (engine == Engine.BYTECODE) {
+            bytecodeMatcher = BytecodeMatcher.compile(dfa);
+            if (bytecodeMatcher == null)
+                this.engine = Engine.DFA;
+        }
+    }
+
+    /**
+     * @return the engine used, which is never {@link Engine#AUTO} and differs from the one asked for when that one
+     * fell back to another
+     */
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public CompileStatistics getStatistics() {
+        return statistics;
     }
 
-    private void compile(String regex) {
-        SyntaxTree syntaxTree = new SyntaxTree(regex, null);
-        NFA nfa = new NFA(syntaxTree.getRoot());
-        DFA dfa = new DFA(nfa.getStateList());
-        transitionTable = dfa.getTransitionTable();
-        is = dfa.getInitState();
-        fs = dfa.getFinalStates();
-        rs = dfa.getRejectedState();
+    /**
+     * @return the approximate number of bytes used by the compiled tables, with the cache of a lazy DFA counted as
+     * full
+     */
+    public long getMemorySize() {
+        if (glushkovNFA != null)
+            return (CommonSets.ENCODING_LENGTH + GlushkovNFA.MAX_POSITIONS + 1
+                    + (glushkovNFA.getPositionCount() + 8) / 8 * 256) * 8L;
+        if (lazyDFA != null)
+            return (long) lazyDFA.getCacheSize() * lazyDFA.getClassCount() * 4;
+        return transitionTable.length * 4L + classMap.length;
     }
 
     public boolean match(String str) {
+        if (prefilter != null && !prefilter.contains(str, 0, str.length()))
+            return false;
+        if (glushkovNFA != null)
+            return glushkovNFA.match(str);
+        if (lazyDFA != null)
+            return lazyDFA.match(str);
+        if (bytecodeMatcher != null)
+            return bytecodeMatcher.matches(str);
         int s = is;
         for (int i = 0, length = str.length(); i != length; i++) {
             char ch = str.charAt(i);
-            s = transitionTable[s][ch];
+            s = transitionTable[s + (classMap[ch] & 0xFF)];
             if (s == rs) {
                 return false; // fast failed using rejected state
             }
         }
-        return fs[s];
+        return s >= as;
+    }
+
+    public boolean match(CharSequence str) {
+        if (str instanceof String)
+            return match((String) str);
+        if (prefilter != null && !prefilter.contains(str, 0, str.length()))
+            return false;
+        if (glushkovNFA != null)
+            return glushkovNFA.match(str);
+        if (lazyDFA != null)
+            return lazyDFA.match(str);
+        if (bytecodeMatcher != null)
+            return bytecodeMatcher.matches(str);
+        int s = is;
+        for (int i = 0, length = str.length(); i != length; i++) {
+            s = transitionTable[s + (classMap[str.charAt(i)] & 0xFF)];
+            if (s == rs)
+                return false;
+        }
+        return s >= as;
+    }
+
+    public boolean match(char[] chars, int offset, int length) {
+        if (prefilter != null && !prefilter.contains(chars, offset, offset + length))
+            return false;
+        if (glushkovNFA != null)
+            return glushkovNFA.match(chars, offset, length);
+        if (lazyDFA != null)
+            return lazyDFA.match(chars, offset, length);
+        if (bytecodeMatcher != null)
+            return bytecodeMatcher.matches(CharBuffer.wrap(chars, offset, length));
+        int s = is;
+        for (int i = offset, end = offset + length; i != end; i++) {
+            s = transitionTable[s + (classMap[chars[i]] & 0xFF)];
+            if (s == rs)
+                return false;
+        }
+        return s >= as;
+    }
+
+    /**
+     * Match bytes as characters 0-255, without decoding them.
+     */
+    public boolean match(byte[] bytes, int offset, int length) {
+        if (prefilter != null && !prefilter.contains(bytes, offset, offset + length))
+            return false;
+        if (glushkovNFA != null)
+            return glushkovNFA.match(bytes, offset, length);
+        if (lazyDFA != null)
+            return lazyDFA.match(bytes, offset, length);
+        if (bytecodeMatcher != null)
+            return bytecodeMatcher.matches(bytes, offset, length);
+        int s = is;
+        for (int i = offset, end = offset + length; i != end; i++) {
+            s = transitionTable[s + (classMap[bytes[i] & 0xFF] & 0xFF)];
+            if (s == rs)
+                return false;
+        }
+        return s >= as;
+    }
+
+    /**
+     * Match the bytes between the position and limit of a heap or direct buffer, leaving the position unchanged.
+     */
+    public boolean match(ByteBuffer buffer) {
+        if (buffer.hasArray())
+            return match(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        if (prefilter != null && !prefilter.contains(buffer, buffer.position(), buffer.limit()))
+            return false;
+        if (glushkovNFA != null)
+            return glushkovNFA.match(buffer);
+        if (lazyDFA != null)
+            return lazyDFA.match(buffer);
+        if (bytecodeMatcher != null)
+            return bytecodeMatcher.matches(buffer);
+        int s = is;
+        for (int i = buffer.position(), end = buffer.limit(); i != end; i++) {
+            s = transitionTable[s + (classMap[buffer.get(i) & 0xFF] & 0xFF)];
+            if (s == rs)
+                return false;
+        }
+        return s >= as;
     }
 }
@@ -1,67 +1,442 @@
 package com.controlj.regexc;
 
-import com.controlj.regexc.automata.DFA;
-import com.controlj.regexc.automata.NFA;
-import com.controlj.regexc.tree.SyntaxTree;
+import com.controlj.regexc.automata.SearchDFA;
+import com.controlj.regexc.util.CompileLimitException;
+import com.controlj.regexc.util.CompileOptions;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Enumeration;
 
 /**
  * Created on 5/25/15.
+ * <p>
+ * A search finds the leftmost position at which a non-empty match starts, and reports the shortest match from there.
+ * A single forward pass with a {@link SearchDFA} finds where that match ends: it tracks every start still able to
+ * match, and after the first match keeps going only while a match from an earlier start is still possible. A DFA for
+ * the reversed regex then scans back from the end, no further than the end of the previous match, to find the start.
+ * <p>
+ * In {@link Mode#LONGEST} mode the forward DFA keeps going after the first match from the leftmost start while a
+ * longer one from that start is still possible, and the match ends where it last accepted. The next search resumes
+ * from there, giving the leftmost-longest matches a lexer expects: {@code 'abcd'|'c'} finds all of "abcd".
+ * <p>
+ * The forward scan may read past the end of the match, while an earlier start or a longer match could still match,
+ * and the next search reads that text again: {@code 'b'[ab]*'y'|'a'} reads all of "baba..." to find each "a", and in
+ * longest mode {@code 'a'+'b'|'a'} reads all of "aaaa..." to find each "a". Once the text read
+ * again exceeds the text matched over by more than a few thousand characters, the searcher makes one backward pass
+ * over the rest of the input with a {@link Lookahead}, which gives the states of the anchored DFA that can still
+ * reach a match at each position. Each match is then found by a single anchored scan that starts at the first
+ * position where a match can start and stops at its end, so every search of an input takes time linear in its length.
+ * <p>
+ * When every match starts with the same literal, the forward scan skips straight to the next occurrence of it
+ * whenever the DFA is in its initial state, since no match can start before that.
+ * <p>
+ * Otherwise, if every match contains one of a set of literals, the search ends as soon as none of them is left in
+ * the input.
+ * <p>
+ * Besides Strings, the input can be any CharSequence, part of a char or byte array, or a heap or direct ByteBuffer.
+ * Bytes are matched as characters 0-255 without decoding. Offsets are reported as indices into the input.
  */
 public class RegexSearcher implements Enumeration<MatchedText> {
-    private int[][] transitionTable;
-    private int is;
-    private int rs;
-    private boolean[] fs;
+    // how many characters may be read again beyond those matched over before switching to the lookahead
+    private static final int MAX_RESCAN = 4096;
+
+    /**
+     * Which match to report among those starting at the same position.
+     */
+    public enum Mode {
+        /**
+         * Report the shortest match.
+         */
+        SHORTEST,
+        /**
+         * Report the longest match from the leftmost start.
+         */
+        LONGEST
+    }
+
+    private final SearchPattern pattern;
+    // copied from the pattern for the search loops
+    private final int[] forwardTable;
+    private final byte[] forwardClassMap;
+    private final int forwardInit;
+    private final int forwardAccept;
+    private final int forwardStop;
+    private final int forwardReject;
+    private final int[] reverseTable;
+    private final byte[] reverseClassMap;
+    private final int reverseInit;
+    private final int reverseReject;
+    private final int reverseAccept;
+    private final int[] anchoredTable;
+    private final byte[] anchoredClassMap;
+    private final int anchoredClassCount;
+    private final int anchoredInit;
+    private final int anchoredReject;
+    private final int anchoredAccept;
+    private final Mode mode;
+    private final LiteralScanner prefix;
+    private final Prefilter required;
+    // the input being searched, only one of which is set
     private String str;
+    private CharSequence chars;
+    private char[] charArray;
+    private byte[] byteArray;
+    private ByteBuffer buffer;      // direct buffers only, heap buffers are searched through their array
+    private int base;       // index in the array of index 0 of the input
+    private int limit;      // end of the input
 
     private int startPos;
+    private int literalAt;      // start of the next required literal, or -1 if not looked for since startPos
+    private int matchStart = -1;
+    private int matchEnd = -1;
+    private int searchFrom;     // where the searches of this input began
+    private int scanned;        // where the last forward scan stopped
+    private long rescanned;     // characters read after the end of a match, that the next search reads again
+    private Lookahead lookahead;        // once rescanning costs more than it saves, the live states of the rest
     private MatchedText text;
 
     public RegexSearcher(String regex) {
-        compile(regex);
-        str = null;
+        this(regex, Mode.SHORTEST);
+    }
+
+    public RegexSearcher(String regex, Mode mode) {
+        this(regex, mode, null);
+    }
+
+    /**
+     * @param options limits on compiling the pattern, or null for none. Exceeding them throws a
+     *                {@link CompileLimitException}, since searching needs the complete DFAs.
+     */
+    public RegexSearcher(String regex, Mode mode, CompileOptions options) {
+        this(new SearchPattern(regex, mode, options));
+    }
+
+    /**
+     * Create a searcher sharing the compiled pattern of another one, e.g. for use in another thread.
+     */
+    public RegexSearcher(RegexSearcher searcher) {
+        this(searcher.pattern);
+    }
+
+    RegexSearcher(SearchPattern pattern) {
+        this.pattern = pattern;
+        mode = pattern.mode;
+        prefix = pattern.prefix;
+        required = pattern.required;
+        forwardTable = pattern.forwardTable;
+        forwardClassMap = pattern.forwardClassMap;
+        forwardInit = pattern.forwardInit;
+        forwardAccept = pattern.forwardAccept;
+        forwardStop = pattern.forwardStop;
+        forwardReject = pattern.forwardReject;
+        reverseTable = pattern.reverseTable;
+        reverseClassMap = pattern.reverseClassMap;
+        reverseInit = pattern.reverseInit;
+        reverseReject = pattern.reverseReject;
+        reverseAccept = pattern.reverseAccept;
+        anchoredTable = pattern.anchoredTable;
+        anchoredClassMap = pattern.anchoredClassMap;
+        anchoredClassCount = pattern.anchoredClassCount;
+        anchoredInit = pattern.anchoredInit;
+        anchoredReject = pattern.anchoredReject;
+        anchoredAccept = pattern.anchoredAccept;
+    }
+
+    SearchPattern getPattern() {
+        return pattern;
     }
 
-    private void compile(String regex) {
-        SyntaxTree syntaxTree = new SyntaxTree(regex, null);
-        NFA nfa = new NFA(syntaxTree.getRoot());
-        DFA dfa = new DFA(nfa.getStateList());
-        transitionTable = dfa.getTransitionTable();
-        is = dfa.getInitState();
-        fs = dfa.getFinalStates();
-        rs = dfa.getRejectedState();
+    public CompileStatistics getStatistics() {
+        return pattern.statistics;
     }
 
     public void search(String str) {
-        startPos = 0;
-        text = null;
+        reset(0, str.length());
         this.str = str;
     }
 
-    @Override
-    public boolean hasMoreElements() {
-        while (startPos < str.length()) {
-            int s = is;
-            for (int i = startPos; i != str.length(); i++) {
-                char ch = str.charAt(i);
-                s = transitionTable[s][ch];
-                if (s == rs) {
-                    break;
-                } else if (fs[s]) {
-                    text = new MatchedText(str.substring(startPos, i + 1), startPos);
-                    startPos = i + 1;
-                    return true;
+    public void search(CharSequence chars) {
+        if (chars instanceof String) {
+            search((String) chars);
+            return;
+        }
+        reset(0, chars.length());
+        this.chars = chars;
+    }
+
+    public void search(char[] chars, int offset, int length) {
+        reset(offset, offset + length);
+        charArray = chars;
+    }
+
+    public void search(byte[] bytes, int offset, int length) {
+        reset(offset, offset + length);
+        byteArray = bytes;
+    }
+
+    /**
+     * Search the bytes between the position and limit of a buffer. The buffer's position is not changed.
+     */
+    public void search(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            search(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            base = buffer.arrayOffset();
+            return;
+        }
+        reset(buffer.position(), buffer.limit());
+        this.buffer = buffer;
+    }
+
+    private void reset(int from, int to) {
+        str = null;
+        chars = null;
+        charArray = null;
+        byteArray = null;
+        buffer = null;
+        base = 0;
+        startPos = from;
+        limit = to;
+        literalAt = -1;
+        matchStart = matchEnd = -1;
+        text = null;
+        searchFrom = from;
+        rescanned = 0;
+        lookahead = null;
+    }
+
+    private int charAt(int i) {
+        if (str != null)
+            return str.charAt(i);
+        if (byteArray != null)
+            return byteArray[i] & 0xFF;
+        if (charArray != null)
+            return charArray[i];
+        if (buffer != null)
+            return buffer.get(i) & 0xFF;
+        return chars.charAt(i);
+    }
+
+    // the start of the first required literal at or after from, or -1
+    private int requiredAt(int from) {
+        if (str != null)
+            return required.indexOf(str, from, limit);
+        if (byteArray != null)
+            return required.indexOf(byteArray, from, limit);
+        if (charArray != null)
+            return required.indexOf(charArray, from, limit);
+        if (buffer != null)
+            return required.indexOf(buffer, from, limit);
+        return required.indexOf(chars, from, limit);
+    }
+
+    // the end of the shortest, or in longest mode the longest, non-empty match at the leftmost start at or after
+    // startPos, or -1
+    private int forwardEnd() {
+        int s = forwardInit;
+        int end = -1;
+        scanned = limit;
+        if (str != null) {
+            for (int i = startPos; i != limit; i++) {
+                if (s == forwardInit && prefix != null) {
+                    i = prefix.indexOf(str, i, limit);
+                    if (i < 0)
+                        return -1;
                 }
+                s = forwardTable[s + (forwardClassMap[str.charAt(i)] & 0xFF)];
+                if (s >= forwardAccept) {
+                    if (s != forwardReject)
+                        end = i + 1;
+                    if (s >= forwardStop) {
+                        scanned = i + 1;
+                        return end;
+                    }
+                }
+            }
+        } else if (byteArray != null) {
+            for (int i = startPos; i != limit; i++) {
+                if (s == forwardInit && prefix != null) {
+                    i = prefix.indexOf(byteArray, i, limit);
+                    if (i < 0)
+                        return -1;
+                }
+                s = forwardTable[s + (forwardClassMap[byteArray[i] & 0xFF] & 0xFF)];
+                if (s >= forwardAccept) {
+                    if (s != forwardReject)
+                        end = i + 1;
+                    if (s >= forwardStop) {
+                        scanned = i + 1;
+                        return end;
+                    }
+                }
+            }
+        } else if (charArray != null) {
+            for (int i = startPos; i != limit; i++) {
+                if (s == forwardInit && prefix != null) {
+                    i = prefix.indexOf(charArray, i, limit);
+                    if (i < 0)
+                        return -1;
+                }
+                s = forwardTable[s + (forwardClassMap[charArray[i]] & 0xFF)];
+                if (s >= forwardAccept) {
+                    if (s != forwardReject)
+                        end = i + 1;
+                    if (s >= forwardStop) {
+                        scanned = i + 1;
+                        return end;
+                    }
+                }
+            }
+        } else if (buffer != null) {
+            for (int i = startPos; i != limit; i++) {
+                if (s == forwardInit && prefix != null) {
+                    i = prefix.indexOf(buffer, i, limit);
+                    if (i < 0)
+                        return -1;
+                }
+                s = forwardTable[s + (forwardClassMap[buffer.get(i) & 0xFF] & 0xFF)];
+                if (s >= forwardAccept) {
+                    if (s != forwardReject)
+                        end = i + 1;
+                    if (s >= forwardStop) {
+                        scanned = i + 1;
+                        return end;
+                    }
+                }
+            }
+        } else {
+            for (int i = startPos; i != limit; i++) {
+                if (s == forwardInit && prefix != null) {
+                    i = prefix.indexOf(chars, i, limit);
+                    if (i < 0)
+                        return -1;
+                }
+                s = forwardTable[s + (forwardClassMap[chars.charAt(i)] & 0xFF)];
+                if (s >= forwardAccept) {
+                    if (s != forwardReject)
+                        end = i + 1;
+                    if (s >= forwardStop) {
+                        scanned = i + 1;
+                        return end;
+                    }
+                }
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Find the next match, without allocating anything. Its bounds are then available from {@link #getStart()}
+     * and {@link #getEnd()}.
+     *
+     * @return true if there was another match
+     */
+    public boolean find() {
+        if (lookahead == null && rescanned > startPos - searchFrom + MAX_RESCAN)
+            lookahead = new Lookahead(anchoredTable, anchoredClassMap, anchoredClassCount, anchoredAccept,
+                    anchoredReject, this::charAt, startPos, limit);
+        if (lookahead != null)
+            return findLive();
+        int end = -1;
+        if (required != null && literalAt < startPos)
+            literalAt = requiredAt(startPos);
+        if (required == null || literalAt >= 0)
+            end = forwardEnd();
+        if (end < 0) {
+            startPos = limit;
+            matchStart = matchEnd = -1;
+            return false;
+        }
+        int start = end;
+        int s = reverseInit;
+        for (int i = end - 1; i >= startPos; i--) {
+            s = reverseTable[s + (reverseClassMap[charAt(i)] & 0xFF)];
+            if (s == reverseReject)
+                break;
+            if (s >= reverseAccept)
+                start = i;
+        }
+        rescanned += scanned - end;
+        matchStart = start;
+        matchEnd = end;
+        startPos = end;
+        return true;
+    }
+
+    // find the next match with the lookahead: it starts at the first position whose character leads to a live
+    // state, and an anchored scan from there ends at the first accepting state, or where no state is live
+    private boolean findLive() {
+        int start = startPos;
+        int s = anchoredReject;
+        for (; start != limit; start++) {
+            s = anchoredTable[anchoredInit + (anchoredClassMap[charAt(start)] & 0xFF)];
+            if (lookahead.isLive(s, start + 1))
+                break;
+        }
+        if (start == limit) {
+            startPos = limit;
+            matchStart = matchEnd = -1;
+            return false;
+        }
+        int end = start + 1;
+        if (mode == Mode.SHORTEST) {
+            while (s < anchoredAccept)
+                s = anchoredTable[s + (anchoredClassMap[charAt(end++)] & 0xFF)];
+        } else {
+            for (int i = end; i != limit; ) {
+                s = anchoredTable[s + (anchoredClassMap[charAt(i++)] & 0xFF)];
+                if (!lookahead.isLive(s, i))
+                    break;
+                if (s >= anchoredAccept)
+                    end = i;
             }
-            startPos++;
         }
-        return false;
+        matchStart = start;
+        matchEnd = end;
+        startPos = end;
+        return true;
+    }
+
+    /**
+     * @return the index of the first character of the last match found, or -1 if there is none
+     */
+    public int getStart() {
+        return matchStart < 0 ? -1 : matchStart - base;
+    }
+
+    /**
+     * @return the index after the last character of the last match found, or -1 if there is none
+     */
+    public int getEnd() {
+        return matchEnd < 0 ? -1 : matchEnd - base;
+    }
+
+    @Override
+    public boolean hasMoreElements() {
+        text = null;
+        return find();
     }
 
     @Override
     public MatchedText nextElement() {
+        if (text == null && matchStart >= 0)
+            text = new MatchedText(text(matchStart, matchEnd), matchStart - base);
         return text;
     }
+
+    private String text(int start, int end) {
+        if (str != null)
+            return str.substring(start, end);
+        if (byteArray != null)
+            return new String(byteArray, start, end - start, StandardCharsets.ISO_8859_1);
+        if (charArray != null)
+            return new String(charArray, start, end - start);
+        if (buffer != null) {
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i != bytes.length; i++)
+                bytes[i] = buffer.get(start + i);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+        return chars.subSequence(start, end).toString();
+    }
 }
@@ -0,0 +1,94 @@
+package com.controlj.regexc;
+
+import com.controlj.regexc.automata.DFA;
+import com.controlj.regexc.automata.NFA;
+import com.controlj.regexc.tree.SyntaxTree;
+import com.controlj.regexc.tree.node.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Matches an input against many patterns at once. The patterns are compiled into a single DFA whose accept states
+ * record which patterns have matched, so one pass over the input finds every pattern that matches it, instead of one
+ * pass per pattern. Patterns are identified by their index in the list given to the constructor.
+ * <p>
+ * Like {@link RegexMatcher}, a pattern matches only if it matches the whole input.
+ */
+public class RegexSet {
+    private static final int[] NONE = new int[0];
+
+    private final int size;
+    private final int[] transitionTable;
+    private final byte[] classMap;
+    private final int is;
+    private final int rs;
+    private final int as;
+    private final int classCount;
+    private final int[][] patterns;      // matched patterns, indexed by state number
+
+    public RegexSet(String... regexes) {
+        this(Arrays.asList(regexes));
+    }
+
+    public RegexSet(List<String> regexes) {
+        size = regexes.size();
+        List<Node> roots = new ArrayList<>();
+        for (String regex : regexes)
+            roots.add(new SyntaxTree(regex, null).getRoot());
+        DFA dfa = new DFA(NFA.union(roots).getStateList());
+        transitionTable = dfa.getFlatTable();
+        classMap = dfa.getClassMap();
+        is = dfa.getFlatInitState();
+        rs = dfa.getFlatRejectState();
+        as = dfa.getFlatAcceptState();
+        classCount = dfa.getClassCount();
+        patterns = dfa.getAcceptPatterns();
+    }
+
+    /**
+     * @return the number of patterns in the set
+     */
+    public int size() {
+        return size;
+    }
+
+    private int[] matched(int s) {
+        return s >= as ? patterns[s / classCount] : NONE;
+    }
+
+    /**
+     * @return the indices of the patterns that match the whole input, in increasing order. The array is shared and
+     * must not be modified.
+     */
+    public int[] match(CharSequence str) {
+        int s = is;
+        for (int i = 0, length = str.length(); i != length; i++) {
+            s = transitionTable[s + (classMap[str.charAt(i)] & 0xFF)];
+            if (s == rs)
+                return NONE;
+        }
+        return matched(s);
+    }
+
+    /**
+     * Match bytes as characters 0-255, without decoding them.
+     */
+    public int[] match(byte[] bytes, int offset, int length) {
+        int s = is;
+        for (int i = offset, end = offset + length; i != end; i++) {
+            s = transitionTable[s + (classMap[bytes[i] & 0xFF] & 0xFF)];
+            if (s == rs)
+                return NONE;
+        }
+        return matched(s);
+    }
+
+    /**
+     * @return true if any pattern matches the whole input
+     */
+    public boolean matchesAny(CharSequence str) {
+        return match(str).length != 0;
+    }
+}
@@ -29,6 +29,7 @@ public class Rex {
     private final String source;
     private Actions actions = new Actions();
     private DFA dfa;
+    private CompileStatistics statistics;
     private LineNumberReader reader;
     private StringBuilder reBuilder;        // accumulate parts of the RE
     private List<String> rules = new ArrayList<>();
@@ -98,10 +99,20 @@ public class Rex {
             NFA nfa = new NFA(tree.getRoot());
             System.out.println("NFA has " + nfa.getStateList().size() + " states");
             dfa = new DFA(nfa.getStateList());
+            System.out.println("DFA minimized from " + dfa.getUnminimizedStateCount() + " to " + dfa.getStateCount() + " states");
+            statistics = new CompileStatistics(tree, nfa, dfa);
         }
         return dfa;
     }
 
+    /**
+     * @return the statistics of building the DFA, building it first if need be
+     */
+    public CompileStatistics getStatistics() {
+        getDfa();
+        return statistics;
+    }
+
     // add a line to the re.
     private void addLine(String line) throws IOException {
         line = line.trim();
@@ -238,12 +249,17 @@ public class Rex {
         List<String> list = Arrays.asList(args);
         String infile = null;
         boolean verbose = false;
+        String javaPackage = null;
         for (int i = 0; i != list.size(); i++) {
             String s = list.get(i);
             if (s.startsWith("-O")) {
                 path = s.substring(2);
                 continue;
             }
+            if (s.startsWith("-J")) {
+                javaPackage = s.substring(2);
+                continue;
+            }
             if (s.equalsIgnoreCase("-v")) {
                 verbose = true;
                 continue;
@@ -265,10 +281,18 @@ public class Rex {
             InputStream stream = new FileInputStream(inputFile);
             Rex rex = new Rex(infile, stream);
             rex.read();
-            if (verbose)
+            if (verbose) {
                 System.out.println(rex.getDfa().toString());
-            CCodeWriter writer = new CCodeWriter(rex.getDfa(), new File(path), rex.getActions());
-            writer.write();
+                System.out.println(rex.getStatistics());
+            }
+            if (javaPackage != null) {
+                JavaCodeWriter writer = new JavaCodeWriter(rex.getDfa(), new File(path), rex.getActions());
+                writer.setPackageName(javaPackage);
+                writer.write();
+            } else {
+                CCodeWriter writer = new CCodeWriter(rex.getDfa(), new File(path), rex.getActions());
+                writer.write();
+            }
             System.exit(0);
         } catch (IOException e) {
             e.printStackTrace();
@@ -0,0 +1,85 @@
+package com.controlj.regexc;
+
+import com.controlj.regexc.automata.DFA;
+import com.controlj.regexc.automata.NFA;
+import com.controlj.regexc.automata.SearchDFA;
+import com.controlj.regexc.tree.RequiredLiterals;
+import com.controlj.regexc.tree.SyntaxTree;
+import com.controlj.regexc.util.CompileOptions;
+
+import java.util.List;
+
+/**
+ * The DFAs needed to search for a regex, compiled once and shared by the searchers built from them. Nothing here
+ * changes after construction, so a pattern may be used by any number of threads.
+ */
+final class SearchPattern {
+    private static final int MAX_PREFIX = 64;
+
+    final RegexSearcher.Mode mode;
+    // literal that every match starts with, or null
+    final LiteralScanner prefix;
+    // when there is no prefix, literals one of which every match contains, or null
+    final Prefilter required;
+    // forward DFA finding the end of the shortest, or in longest mode the longest, match at the leftmost start
+    final int[] forwardTable;
+    final byte[] forwardClassMap;
+    final int forwardInit;
+    final int forwardAccept;
+    final int forwardStop;
+    final int forwardReject;
+    // reverse, anchored DFA
+    final int[] reverseTable;
+    final byte[] reverseClassMap;
+    final int reverseInit;
+    final int reverseReject;
+    final int reverseAccept;
+    // anchored DFA, to search without rescanning
+    final int[] anchoredTable;
+    final byte[] anchoredClassMap;
+    final int anchoredClassCount;
+    final int anchoredInit;
+    final int anchoredReject;
+    final int anchoredAccept;
+    final CompileStatistics statistics;
+
+    // options are the limits on compiling, or null for none; a searcher has no engine to fall back to
+    SearchPattern(String regex, RegexSearcher.Mode mode, CompileOptions options) {
+        this.mode = mode;
+        options = options == null ? new CompileOptions().start() : options.start();
+        SyntaxTree syntaxTree = new SyntaxTree(regex, null, options);
+        NFA nfa = new NFA(syntaxTree.getRoot(), options);
+        NFA reverse = nfa.reverse();
+        String literal = nfa.literalPrefix(MAX_PREFIX);
+        prefix = literal.isEmpty() ? null : new LiteralScanner(literal);
+        List<String> literals = new RequiredLiterals(syntaxTree.getRoot()).getLiterals();
+        required = prefix != null || literals.isEmpty() ? null : new Prefilter(literals);
+        DFA anchored = new DFA(nfa.getStateList(), options);
+        anchoredTable = anchored.getFlatTable();
+        anchoredClassMap = anchored.getClassMap();
+        anchoredClassCount = anchored.getClassCount();
+        anchoredInit = anchored.getFlatInitState();
+        anchoredReject = anchored.getFlatRejectState();
+        anchoredAccept = anchored.getFlatAcceptState();
+        SearchDFA forward = new SearchDFA(nfa.getStateList(), mode == RegexSearcher.Mode.LONGEST, options);
+        forwardTable = forward.getFlatTable();
+        forwardClassMap = forward.getClassMap();
+        forwardInit = forward.getFlatInitState();
+        forwardAccept = forward.getFlatAcceptState();
+        forwardStop = forward.getFlatStopState();
+        forwardReject = forward.getFlatRejectState();
+        DFA backward = new DFA(reverse.getStateList(), options);
+        reverseTable = backward.getFlatTable();
+        reverseClassMap = backward.getClassMap();
+        reverseInit = backward.getFlatInitState();
+        reverseReject = backward.getFlatRejectState();
+        reverseAccept = backward.getFlatAcceptState();
+        statistics = new CompileStatistics(syntaxTree, nfa, forward, anchored, backward);
+    }
+
+    // the approximate number of bytes used by the tables
+    long getMemorySize() {
+        return (forwardTable.length + reverseTable.length + anchoredTable.length) * 4L + forwardClassMap.length
+                + reverseClassMap.length + anchoredClassMap.length;
+    }
+}
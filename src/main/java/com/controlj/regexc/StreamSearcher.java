@@ -0,0 +1,278 @@
+package com.controlj.regexc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Searches a stream of bytes that arrives in chunks, with the same matches a {@link RegexSearcher} would find in the
+ * whole stream. The forward DFA state is carried from one chunk to the next, so a match may span any number of
+ * chunks, and matches are reported to a {@link MatchListener} as absolute stream offsets.
+ * <p>
+ * Finding the start of a match means scanning back from its end, and resuming after a match means scanning again
+ * from its end, so the searcher keeps the bytes since the end of the previous match. To bound memory, at most
+ * {@code historyLimit} of them are kept. A match whose start lies before that is reported with a start of -1. A match
+ * is held back while a match from an earlier start, or a longer match, may still end later, and is reported once the
+ * DFA has read that many bytes past the last accepting position.
+ * <p>
+ * Call {@link #finish()} at the end of the stream, to report a pending match and reset for a new stream.
+ * <p>
+ * Files can be searched in place through {@link #search(Path)}, which maps them in windows of up to
+ * {@link #DEFAULT_MAP_WINDOW} bytes.
+ */
+public class StreamSearcher {
+    public static final int DEFAULT_HISTORY_LIMIT = 64 * 1024;
+    public static final int DEFAULT_MAP_WINDOW = 1 << 30;
+    private static final int READ_SIZE = 64 * 1024;
+
+    private final SearchPattern pattern;
+    private final MatchListener listener;
+    private final int historyLimit;
+    private int mapWindow = DEFAULT_MAP_WINDOW;
+
+    // bytes from historyStart up to the start of the current chunk
+    private byte[] history = new byte[256];
+    private int historyLength;
+    private long historyStart;
+    // the chunk being searched and the offset of its first byte
+    private ByteBuffer chunk;
+    private long chunkStart;
+    private boolean endOfStream;
+
+    private long position;      // offset of the next byte to be read by the forward DFA
+    private int state;          // forward DFA state
+    private long restart;       // matches may not start before this
+    private long candidate;     // end of the match found by the forward DFA so far, or -1
+
+    public StreamSearcher(String regex, RegexSearcher.Mode mode, MatchListener listener) {
+        this(new SearchPattern(regex, mode, null), listener, DEFAULT_HISTORY_LIMIT);
+    }
+
+    /**
+     * Create a stream searcher using the compiled pattern of a {@link RegexSearcher}.
+     */
+    public StreamSearcher(RegexSearcher searcher, MatchListener listener, int historyLimit) {
+        this(searcher.getPattern(), listener, historyLimit);
+    }
+
+    private StreamSearcher(SearchPattern pattern, MatchListener listener, int historyLimit) {
+        if (historyLimit < 1)
+            throw new IllegalArgumentException("history limit must be positive");
+        this.pattern = pattern;
+        this.listener = listener;
+        this.historyLimit = historyLimit;
+        reset();
+    }
+
+    /**
+     * Forget the current stream, without reporting anything pending.
+     */
+    public void reset() {
+        historyLength = 0;
+        historyStart = 0;
+        chunkStart = 0;
+        endOfStream = false;
+        position = 0;
+        state = pattern.forwardInit;
+        restart = 0;
+        candidate = -1;
+    }
+
+    /**
+     * @return the number of bytes read from the current stream
+     */
+    public long getOffset() {
+        return chunkStart;
+    }
+
+    public void search(byte[] bytes, int offset, int length) {
+        search(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * Search the bytes between the position and limit of a buffer, which is left unchanged.
+     */
+    public void search(ByteBuffer buffer) {
+        chunk = buffer.slice();
+        run();
+        keepHistory();
+        chunkStart += chunk.limit();
+        chunk = null;
+    }
+
+    /**
+     * Search a channel up to its end, then {@link #finish()}. The channel is not closed.
+     */
+    public void search(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+        while (channel.read(buffer) >= 0) {
+            buffer.flip();
+            search(buffer);
+            buffer.clear();
+        }
+        finish();
+    }
+
+    public void search(InputStream stream) throws IOException {
+        search(Channels.newChannel(stream));
+    }
+
+    /**
+     * Search a file by memory-mapping it, so the DFA runs directly over the mapped bytes with no copying or
+     * decoding. Files larger than the map window are mapped one window at a time. Calls {@link #finish()} at the end.
+     */
+    public void search(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            search(channel);
+        }
+    }
+
+    /**
+     * Search a file channel from its start to its current size, by memory-mapping it, then {@link #finish()}.
+     */
+    public void search(FileChannel channel) throws IOException {
+        long size = channel.size();
+        for (long offset = 0; offset < size; offset += mapWindow)
+            search(channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(mapWindow, size - offset)));
+        finish();
+    }
+
+    /**
+     * @param mapWindow the largest part of a file to map at once
+     */
+    public void setMapWindow(int mapWindow) {
+        if (mapWindow < 1)
+            throw new IllegalArgumentException("map window must be positive");
+        this.mapWindow = mapWindow;
+    }
+
+    /**
+     * End the stream, reporting any match still pending, and reset for a new one.
+     */
+    public void finish() {
+        chunk = ByteBuffer.allocate(0);
+        endOfStream = true;
+        run();
+        chunk = null;
+        reset();
+    }
+
+    private int byteAt(long offset) {
+        if (offset >= chunkStart)
+            return chunk.get((int) (offset - chunkStart)) & 0xFF;
+        return history[(int) (offset - historyStart)] & 0xFF;
+    }
+
+    private void run() {
+        long chunkEnd = chunkStart + chunk.limit();
+        for (; ; ) {
+            long end = forwardEnd(chunkEnd);
+            if (end < 0)
+                return;
+            matched(reverseStart(end), end);
+        }
+    }
+
+    private void matched(long start, long end) {
+        listener.matched(start, end);
+        restart = end;
+        position = end;
+        state = pattern.forwardInit;
+        candidate = -1;
+    }
+
+    // the end of the next match, or -1 if it is not known by the end of this chunk
+    private long forwardEnd(long chunkEnd) {
+        int[] table = pattern.forwardTable;
+        byte[] classMap = pattern.forwardClassMap;
+        int accept = pattern.forwardAccept;
+        int stop = pattern.forwardStop;
+        int reject = pattern.forwardReject;
+        int s = state;
+        // bytes before the chunk, when resuming after a match the forward DFA read past
+        while (position < chunkStart) {
+            s = table[s + (classMap[byteAt(position++)] & 0xFF)];
+            if (s >= accept) {
+                if (s != reject)
+                    candidate = position;
+                if (s >= stop)
+                    return candidate;
+            }
+        }
+        int i = (int) (position - chunkStart);
+        int length = chunk.limit();
+        if (chunk.hasArray()) {
+            byte[] bytes = chunk.array();
+            int base = chunk.arrayOffset();
+            while (i != length) {
+                s = table[s + (classMap[bytes[base + i++] & 0xFF] & 0xFF)];
+                if (s >= accept) {
+                    if (s != reject)
+                        candidate = chunkStart + i;
+                    if (s >= stop)
+                        break;
+                }
+            }
+        } else {
+            while (i != length) {
+                s = table[s + (classMap[chunk.get(i++) & 0xFF] & 0xFF)];
+                if (s >= accept) {
+                    if (s != reject)
+                        candidate = chunkStart + i;
+                    if (s >= stop)
+                        break;
+                }
+            }
+        }
+        state = s;
+        position = chunkStart + i;
+        // an earlier start may still match, unless the stream has ended or the match would be lost from the history
+        if (s >= stop || candidate >= 0 && (endOfStream || chunkEnd - candidate >= historyLimit))
+            return candidate;
+        return -1;
+    }
+
+    // the leftmost start of a match ending at end, or -1 if that is before the retained history
+    private long reverseStart(long end) {
+        int[] table = pattern.reverseTable;
+        byte[] classMap = pattern.reverseClassMap;
+        long limit = Math.max(restart, historyStart);
+        long start = end;
+        int s = pattern.reverseInit;
+        long i = end;
+        while (i != limit) {
+            s = table[s + (classMap[byteAt(--i)] & 0xFF)];
+            if (s == pattern.reverseReject)
+                return start;
+            if (s >= pattern.reverseAccept)
+                start = i;
+        }
+        return limit == restart ? start : -1;
+    }
+
+    // keep the bytes that may be scanned again, up to the limit
+    private void keepHistory() {
+        long chunkEnd = chunkStart + chunk.limit();
+        long from = Math.max(restart, chunkEnd - historyLimit);
+        from = Math.max(from, historyStart);
+        int fromHistory = from < chunkStart ? (int) (chunkStart - from) : 0;
+        int fromChunk = (int) (chunkEnd - Math.max(from, chunkStart));
+        if (fromHistory + fromChunk > history.length) {
+            byte[] bigger = new byte[Math.max(fromHistory + fromChunk, history.length * 2)];
+            System.arraycopy(history, historyLength - fromHistory, bigger, 0, fromHistory);
+            history = bigger;
+        } else {
+            System.arraycopy(history, historyLength - fromHistory, history, 0, fromHistory);
+        }
+        ByteBuffer source = chunk.duplicate();
+        source.position(chunk.limit() - fromChunk);
+        source.get(history, fromHistory, fromChunk);
+        historyLength = fromHistory + fromChunk;
+        historyStart = chunkEnd - historyLength;
+    }
+}
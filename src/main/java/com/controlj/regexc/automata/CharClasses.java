@@ -0,0 +1,168 @@
+package com.controlj.regexc.automata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A partition of the character set into equivalence classes. Characters start out in one class, and each call to
+ * {@link #refine(int[])} or {@link #refine(Collection)} splits the classes so that two characters stay together only if they have carried the same
+ * label in every refinement so far. Classes are numbered in order of their lowest character, so character 0 is
+ * always in class 0; after refining by sets, call {@link #normalize()} to restore that numbering.
+ */
+public class CharClasses {
+    private final int[] classOf;
+    private int count = 1;
+    private int[] size;     // class sizes, only kept while refining by sets
+
+    public CharClasses(int size) {
+        classOf = new int[size];
+    }
+
+    /**
+     * Partition the tokens used by an NFA into classes such that every NFA state has the same transitions on all
+     * the tokens in a class. Tokens that never appear in a transition end up together in one class.
+     *
+     * @param nfaStateList the NFA states
+     * @param size         the number of tokens to partition. Transitions on tokens at or above this are ignored.
+     * @return the classes, normalized
+     */
+    public static CharClasses forNFA(List<NFAState> nfaStateList, int size) {
+        CharClasses classes = new CharClasses(size);
+        for (NFAState state : nfaStateList) {
+            // tokens leading to the same set of states
+            Map<Set<NFAState>, List<Character>> byTarget = new HashMap<>();
+            for (Map.Entry<Character, Set<NFAState>> entry : state.getTransitionMap().entrySet()) {
+                if (entry.getKey() < size)
+                    byTarget.computeIfAbsent(entry.getValue(), k -> new ArrayList<>()).add(entry.getKey());
+            }
+            for (List<Character> tokens : byTarget.values())
+                classes.refine(tokens);
+            for (BitSet set : state.getSetTransitionMap().keySet())
+                classes.refine(set);
+        }
+        classes.normalize();
+        return classes;
+    }
+
+    /**
+     * Split the classes by the given labels.
+     *
+     * @param labels a label for each character, e.g. the next state of a DFA row
+     */
+    public void refine(int[] labels) {
+        Map<Long, Integer> split = new HashMap<>();
+        for (int c = 0; c != classOf.length; c++) {
+            long key = ((long) classOf[c] << 32) | (labels[c] & 0xFFFFFFFFL);
+            Integer id = split.get(key);
+            if (id == null) {
+                id = split.size();
+                split.put(key, id);
+            }
+            classOf[c] = id;
+        }
+        count = split.size();
+        size = null;
+    }
+
+    /**
+     * Split each class into the characters that are in the given set and those that are not. Only the members of
+     * the set are visited, so this is cheap for small sets; classes are renumbered by {@link #normalize()}.
+     *
+     * @param members the characters in the set, without duplicates
+     */
+    public void refine(Collection<Character> members) {
+        if (size == null) {
+            size = new int[classOf.length + 1];
+            for (int c : classOf)
+                size[c]++;
+        }
+        Map<Integer, Integer> hits = new HashMap<>();
+        for (char c : members)
+            hits.merge(classOf[c], 1, Integer::sum);
+        Map<Integer, Integer> split = new HashMap<>();
+        for (Map.Entry<Integer, Integer> entry : hits.entrySet()) {
+            if (entry.getValue() != size[entry.getKey()]) {
+                split.put(entry.getKey(), count);
+                size[entry.getKey()] -= entry.getValue();
+                size[count++] = entry.getValue();
+            }
+        }
+        if (split.isEmpty())
+            return;
+        for (char c : members) {
+            Integer to = split.get(classOf[c]);
+            if (to != null)
+                classOf[c] = to;
+        }
+    }
+
+    /**
+     * Split each class into the characters that are in the given set and those that are not.
+     *
+     * @param set the characters in the set; those at or above the size of the partition are ignored
+     */
+    public void refine(BitSet set) {
+        List<Character> members = new ArrayList<>(set.cardinality());
+        for (int c = set.nextSetBit(0); c >= 0 && c < classOf.length; c = set.nextSetBit(c + 1))
+            members.add((char) c);
+        refine(members);
+    }
+
+    /**
+     * Renumber the classes in order of their lowest character.
+     */
+    public void normalize() {
+        int[] renumber = new int[count];
+        Arrays.fill(renumber, -1);
+        int next = 0;
+        for (int c = 0; c != classOf.length; c++) {
+            if (renumber[classOf[c]] < 0)
+                renumber[classOf[c]] = next++;
+            classOf[c] = renumber[classOf[c]];
+        }
+        size = null;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getSize() {
+        return classOf.length;
+    }
+
+    public int classOf(int c) {
+        return classOf[c];
+    }
+
+    /**
+     * @return the lowest character in each class, indexed by class
+     */
+    public char[] getRepresentatives() {
+        char[] result = new char[count];
+        boolean[] seen = new boolean[count];
+        for (int c = 0; c != classOf.length; c++) {
+            if (!seen[classOf[c]]) {
+                seen[classOf[c]] = true;
+                result[classOf[c]] = (char) c;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the class of each character as an unsigned byte. Only valid if there are at most 256 classes.
+     */
+    public byte[] toByteMap() {
+        byte[] result = new byte[classOf.length];
+        for (int c = 0; c != classOf.length; c++)
+            result[c] = (byte) classOf[c];
+        return result;
+    }
+}
@@ -1,6 +1,7 @@
 package com.controlj.regexc.automata;
 
 import com.controlj.regexc.util.CommonSets;
+import com.controlj.regexc.util.CompileOptions;
 
 import java.util.*;
 
@@ -10,16 +11,39 @@ import java.util.*;
 public class DFA {
 
     private int[][] transitionTable;
+    private int[][] compactTable;
+    private byte[] classMap;
+    private int classCount;
+    private int[] flatTable;
+    private int[] flatActions;      // index in actionSets of the actions on each transition of the flat table
+    private List<Set<Integer>> actionSets;      // distinct sets of actions, the empty set first
+    // first accept state. States below this are not accept states
+    private int acceptState;
     // init state
     private DFAState initialState = null;
     // rejected state
     private int rejectState = -1;
     // final states
     private boolean[] finalStates;
+    // patterns matched in each state, when built from a set of patterns
+    private int[][] acceptPatterns;
     private int charLimit = CommonSets.ENCODING_LENGTH;       // character set size plus number of tags
     private ArrayList<DFAState> dfaStates;
+    private int unminimizedStateCount;      // reachable states before equivalent states were merged
+    private int subsetStateCount;           // states found by the subset construction
+    private long subsetNanos;
+    private long minimizeNanos;
+    private final CompileOptions options;
 
     public DFA(List<NFAState> nfaStateList) {
+        this(nfaStateList, null);
+    }
+
+    /**
+     * @param options limits on the number of states, the size of the table and the time taken, or null for none
+     */
+    public DFA(List<NFAState> nfaStateList, CompileOptions options) {
+        this.options = options == null ? new CompileOptions().start() : options.start();
         for (NFAState state : nfaStateList) {
             for (Character c : state.getTransitionMap().keySet()) {
                 if (c >= charLimit)
@@ -27,12 +51,87 @@ public class DFA {
             }
         }
         convert(nfaStateList);
+        this.options.checkTableBytes(getTableBytes());
     }
 
+    /**
+     * @return the transition table with a full row of {@link CommonSets#ENCODING_LENGTH} entries per state. It is
+     * expanded from the compact table on first use; matchers should use {@link #getCompactTable()} instead.
+     */
     public int[][] getTransitionTable() {
+        if (transitionTable == null) {
+            transitionTable = new int[compactTable.length][CommonSets.ENCODING_LENGTH];
+            for (int s = 0; s != compactTable.length; s++) {
+                for (int ch = 0; ch != CommonSets.ENCODING_LENGTH; ch++)
+                    transitionTable[s][ch] = compactTable[s][classMap[ch] & 0xFF];
+            }
+        }
         return transitionTable;
     }
 
+    /**
+     * @return the character class of each character, as an unsigned byte. Characters in the same class have the
+     * same transitions in every state.
+     */
+    public byte[] getClassMap() {
+        return classMap;
+    }
+
+    public int getClassCount() {
+        return classCount;
+    }
+
+    /**
+     * @return the transition table with one column per character class, indexed by
+     * {@code [state][classMap[ch] & 0xFF]}
+     */
+    public int[][] getCompactTable() {
+        return compactTable;
+    }
+
+    /**
+     * The compact table as a single array. Each state number is premultiplied by the row length
+     * ({@link #getClassCount()}), so the next state is {@code flatTable[s + (classMap[ch] & 0xFF)]}. The reject state
+     * has a row of its own which loops back to itself. Non-accept states are numbered before accept states, and the
+     * reject state comes last, so a state {@code s} other than the reject state accepts iff
+     * {@code s >= getFlatAcceptState()}.
+     *
+     * @return the flat transition table
+     */
+    public int[] getFlatTable() {
+        return flatTable;
+    }
+
+    /**
+     * @return for each entry of the flat table, the index in {@link #getActionSets()} of the actions performed on
+     * that transition
+     */
+    public int[] getFlatActions() {
+        return flatActions;
+    }
+
+    /**
+     * @return the distinct sets of action ids on the transitions, with the empty set at index 0
+     */
+    public List<Set<Integer>> getActionSets() {
+        return actionSets;
+    }
+
+    public int getFlatInitState() {
+        return getInitState() * classCount;
+    }
+
+    public int getFlatRejectState() {
+        return rejectState * classCount;
+    }
+
+    /**
+     * @return the premultiplied number of the first accept state
+     */
+    public int getFlatAcceptState() {
+        return acceptState * classCount;
+    }
+
     public int getRejectedState() {
         return rejectState;
     }
@@ -45,55 +144,126 @@ public class DFA {
         return finalStates;
     }
 
+    /**
+     * For a DFA built from an NFA for a set of patterns, the patterns that have matched on reaching each state.
+     *
+     * @return the indices of the patterns, in increasing order, for each state; empty for non-accept states
+     */
+    public int[][] getAcceptPatterns() {
+        return acceptPatterns;
+    }
+
+    /**
+     * @return the number of reachable states before minimization merged equivalent states
+     */
+    public int getUnminimizedStateCount() {
+        return unminimizedStateCount;
+    }
+
+    /**
+     * @return the number of states built by the subset construction, before unreachable states were removed
+     */
+    public int getSubsetStateCount() {
+        return subsetStateCount;
+    }
+
+    /**
+     * @return the time taken by the subset construction, in nanoseconds
+     */
+    public long getSubsetNanos() {
+        return subsetNanos;
+    }
+
+    /**
+     * @return the time taken to minimize the DFA and build its tables, in nanoseconds
+     */
+    public long getMinimizeNanos() {
+        return minimizeNanos;
+    }
+
+    /**
+     * @return the size in bytes of the flat table, its actions and the class map, which is what a matcher keeps
+     */
+    public long getTableBytes() {
+        return (flatTable.length + (actionSets.size() > 1 ? flatActions.length : 0)) * 4L + classMap.length;
+    }
+
+    /**
+     * @return the number of states in the minimized DFA, not counting the reject state
+     */
+    public int getStateCount() {
+        return dfaStates.size();
+    }
+
     private void convert(List<NFAState> nfaStateList) {
         NFAState initState = nfaStateList.get(0);
         NFAState finalState = nfaStateList.get(1);
 
+        long start = System.nanoTime();
         Map<NFAState, Set<NFAState>> closureMap = calculateClosure(nfaStateList);
 
-        // construct a NFA first
-        Map<NFAState, Map<Character, Set<NFAState>>> nfaTransitionMap = new HashMap<>();
-        for (NFAState state : nfaStateList) {
-            Map<Character, Set<NFAState>> subMap = new HashMap<>();
-            for (char ch = 0; ch != charLimit; ch++) {
-                Set<NFAState> closure = closureMap.get(state);
-                Set<NFAState> reachable = traceReachable(closure, ch, closureMap);
-                if (!reachable.isEmpty()) {
-                    subMap.put(ch, reachable);
-                }
-            }
-            nfaTransitionMap.put(state, subMap);
-        }
-
-        // Construct an original DFA using the constructed NFA. Each key which is set of nfa states is a new dfa state.
+        // Construct an original DFA using the NFA. Each key which is set of nfa states is a new dfa state.
         Map<Set<NFAState>, Map<Character, Set<NFAState>>> originalDFATransitionMap = new HashMap<>();
-        constructOriginalDFA(closureMap.get(initState), nfaTransitionMap, originalDFATransitionMap);
+        constructOriginalDFA(closureMap.get(initState), CharClasses.forNFA(nfaStateList, charLimit), closureMap, originalDFATransitionMap);
+        subsetStateCount = originalDFATransitionMap.size();
+        long constructed = System.nanoTime();
+        subsetNanos = constructed - start;
 
         // construct minimum DFA
         minimize(originalDFATransitionMap, closureMap.get(initState), finalState);
+        minimizeNanos = System.nanoTime() - constructed;
     }
 
-    private void constructOriginalDFA(Set<NFAState> stateSet, Map<NFAState, Map<Character, Set<NFAState>>> nfaTransitionMap, Map<Set<NFAState>, Map<Character, Set<NFAState>>> originalDFATransitionMap) {
+    private void constructOriginalDFA(Set<NFAState> stateSet, CharClasses classes, Map<NFAState, Set<NFAState>> closureMap, Map<Set<NFAState>, Map<Character, Set<NFAState>>> originalDFATransitionMap) {
+        char[] representatives = classes.getRepresentatives();
+        List<List<Character>> members = new ArrayList<>();
+        for (int k = 0; k != classes.getCount(); k++)
+            members.add(new ArrayList<>());
+        for (char ch = 0; ch != charLimit; ch++)
+            members.get(classes.classOf(ch)).add(ch);
 
         Stack<Set<NFAState>> stack = new Stack<>();
         stack.push(stateSet);
+        originalDFATransitionMap.put(stateSet, new HashMap<>());
 
         do {
             Set<NFAState> pop = stack.pop();
-            Map<Character, Set<NFAState>> subMap = originalDFATransitionMap.computeIfAbsent(pop, k -> new HashMap<>());
-            for (char ch = 0; ch != charLimit; ch++) {
-                Set<NFAState> union = new HashSet<>();
-                for (NFAState state : pop) {
-                    Set<NFAState> nfaSet = nfaTransitionMap.get(state).get(ch);
-                    if (nfaSet != null) {
-                        union.addAll(nfaSet);
+            Map<Character, Set<NFAState>> subMap = originalDFATransitionMap.get(pop);
+            // only the tokens that actually occur, one per class
+            Map<Integer, Set<NFAState>> unions = new TreeMap<>();
+            for (NFAState state : pop) {
+                for (Map.Entry<Character, Set<NFAState>> entry : state.getTransitionMap().entrySet()) {
+                    int k = classes.classOf(entry.getKey());
+                    if (representatives[k] != entry.getKey())
+                        continue;
+                    Set<NFAState> union = unions.computeIfAbsent(k, key -> new HashSet<>());
+                    for (NFAState next : entry.getValue())
+                        union.addAll(closureMap.get(next));
+                }
+                // a set holds whole classes, so testing each representative finds them
+                for (Map.Entry<BitSet, Set<NFAState>> entry : state.getSetTransitionMap().entrySet()) {
+                    BitSet set = entry.getKey();
+                    for (int k = 0; k != representatives.length; k++) {
+                        if (!set.get(representatives[k]))
+                            continue;
+                        Set<NFAState> union = unions.computeIfAbsent(k, key -> new HashSet<>());
+                        for (NFAState next : entry.getValue())
+                            union.addAll(closureMap.get(next));
                     }
                 }
-                if (!union.isEmpty()) {
+            }
+            for (Map.Entry<Integer, Set<NFAState>> entry : unions.entrySet()) {
+                Set<NFAState> union = entry.getValue();
+                for (char ch : members.get(entry.getKey()))
                     subMap.put(ch, union);
-                    if (!originalDFATransitionMap.containsKey(union)) {
-                        stack.push(union);
-                    }
+                if (!originalDFATransitionMap.containsKey(union)) {
+                    originalDFATransitionMap.put(union, new HashMap<>());
+                    stack.push(union);
+                    int size = originalDFATransitionMap.size();
+                    options.checkDfaStates(size);
+                    options.checkTableBytes(size * (long)classes.getCount() * 4);
+                    if ((size & 0x3F) == 0)
+                        options.checkDeadline();
                 }
             }
         } while (!stack.isEmpty());
@@ -123,20 +293,6 @@ public class DFA {
         } while (!nfaStack.isEmpty());
     }
 
-    private Set<NFAState> traceReachable(Set<NFAState> closure, char ch, Map<NFAState, Set<NFAState>> closureMap) {
-        Set<NFAState> result = new HashSet<>();
-        for (NFAState closureState : closure) {
-            Map<Character, Set<NFAState>> transitionMap = closureState.getTransitionMap();
-            Set<NFAState> stateSet = transitionMap.get(ch);
-            if (stateSet != null) {
-                for (NFAState state : stateSet) {
-                    result.addAll(closureMap.get(state)); // closure of all the reachable states by scanning a char of the given closure.
-                }
-            }
-        }
-        return result;
-    }
-
     private void minimize(Map<Set<NFAState>, Map<Character, Set<NFAState>>> oriDFATransitionMap, Set<NFAState> initClosure, NFAState finalNFAState) {
         Set<DFATransition> transitions = new HashSet<>();
         Map<Set<NFAState>, DFAState> nfaStateMap = new HashMap<>();
@@ -144,8 +300,10 @@ public class DFA {
         for (Set<NFAState> nfaState : oriDFATransitionMap.keySet()) {
             DFAState dfaState = new DFAState();
             nfaStateMap.put(nfaState, dfaState);
-            if (nfaState.contains(finalNFAState))
+            if (nfaState.contains(finalNFAState)) {
                 dfaState.setAccept(true);
+                dfaState.setPatterns(patternsOf(nfaState));
+            }
         }
         initialState = nfaStateMap.get(initClosure);
         // add transitions
@@ -188,49 +346,260 @@ public class DFA {
                 }
             }
         }
-        // remove unused states and renumber.
-        Set<DFAState> stateSet = new HashSet<>();
-        addUsed(initialState, stateSet);
+        // remove unused states, merge equivalent ones and renumber.
+        Set<DFAState> stateSet = new LinkedHashSet<>();
+        addReachable(initialState, stateSet, true);
+        unminimizedStateCount = stateSet.size();
+        mergeEquivalentStates(new ArrayList<>(stateSet));
+        stateSet.clear();
+        addReachable(initialState, stateSet, true);
         dfaStates = new ArrayList<>();
         Set<DFAState> added = new LinkedHashSet<>();
-        addNonAccept(initialState, added);
-        // now add in the accept states, at the end
+        addReachable(initialState, added, false);
+        // non-accept states only reachable through an accept state, then the accept states at the end
         for (DFAState state : stateSet) {
-            if (!added.contains(state))
+            if (!state.isAccept())
                 added.add(state);
         }
+        acceptState = added.size();
+        added.addAll(stateSet);
         dfaStates = new ArrayList<>(added);
         for(int i = 0 ; i != dfaStates.size() ; i++) {
             dfaStates.get(i).setId(i);
         }
         rejectState = dfaStates.size();
-        transitionTable = new int[rejectState][];
         finalStates = new boolean[rejectState];
+        acceptPatterns = new int[rejectState][];
+        // find the character classes, then build one column per class
+        CharClasses classes = new CharClasses(CommonSets.ENCODING_LENGTH);
+        int[] row = new int[CommonSets.ENCODING_LENGTH];
+        Map<Set<Integer>, Integer> actionIndex = new LinkedHashMap<>();
+        actionIndex.put(Collections.emptySet(), 0);
         for (DFAState state : dfaStates) {
             finalStates[state.getId()] = state.isAccept();
-            transitionTable[state.getId()] = new int[CommonSets.ENCODING_LENGTH];
-            Arrays.fill(transitionTable[state.getId()], rejectState);
-            for (Map.Entry<Character, DFATransition> transition : state.getTransitionMap().entrySet()) {
-                transitionTable[state.getId()][transition.getKey()] = transition.getValue().getNextId();
+            acceptPatterns[state.getId()] = state.getPatterns() == null ? new int[0] : state.getPatterns();
+            fillRow(state, row);
+            classes.refine(row);
+            fillActionRow(state, row, actionIndex);
+            classes.refine(row);
+        }
+        actionSets = new ArrayList<>(actionIndex.keySet());
+        classCount = classes.getCount();
+        classMap = classes.toByteMap();
+        char[] representatives = classes.getRepresentatives();
+        compactTable = new int[rejectState][classCount];
+        for (DFAState state : dfaStates) {
+            fillRow(state, row);
+            for (int k = 0; k != classCount; k++)
+                compactTable[state.getId()][k] = row[representatives[k]];
+        }
+        // flat copy with premultiplied state numbers, including a row for the reject state
+        flatTable = new int[(rejectState + 1) * classCount];
+        flatActions = new int[flatTable.length];
+        for (int st = 0; st <= rejectState; st++) {
+            for (int k = 0; k != classCount; k++) {
+                int next = st == rejectState ? rejectState : compactTable[st][k];
+                flatTable[st * classCount + k] = next * classCount;
             }
         }
+        for (DFAState state : dfaStates) {
+            fillActionRow(state, row, actionIndex);
+            for (int k = 0; k != classCount; k++)
+                flatActions[state.getId() * classCount + k] = row[representatives[k]];
+        }
     }
 
-    private void addNonAccept(DFAState state, Set<DFAState> states) {
-        if (state.isAccept() || states.contains(state))
-            return;
-        states.add(state);
-        for (DFATransition transition : state.getTransitionMap().values()) {
-            addNonAccept(transition.getNext(), states);
+    private void fillActionRow(DFAState state, int[] row, Map<Set<Integer>, Integer> actionIndex) {
+        Arrays.fill(row, 0);
+        for (Map.Entry<Character, DFATransition> transition : state.getTransitionMap().entrySet()) {
+            Set<Integer> actions = transition.getValue().getActions();
+            if (!actions.isEmpty() && transition.getKey() < row.length)
+                row[transition.getKey()] = actionIndex.computeIfAbsent(actions, k -> actionIndex.size());
+        }
+    }
+
+    // the tags of the tagged NFA states in a set, which identify the patterns that have matched
+    private static int[] patternsOf(Set<NFAState> nfaStates) {
+        Set<Integer> tags = new TreeSet<>();
+        for (NFAState state : nfaStates) {
+            if (state.getTag() != -1)
+                tags.add(state.getTag());
         }
+        int[] patterns = new int[tags.size()];
+        int i = 0;
+        for (int tag : tags)
+            patterns[i++] = tag;
+        return patterns;
     }
 
-    private void addUsed(DFAState state, Set<DFAState> states) {
-        if (states.contains(state))
+    private void fillRow(DFAState state, int[] row) {
+        Arrays.fill(row, rejectState);
+        for (Map.Entry<Character, DFATransition> transition : state.getTransitionMap().entrySet()) {
+            row[transition.getKey()] = transition.getValue().getNextId();
+        }
+    }
+
+    /**
+     * Hopcroft partition refinement over the reachable states. The alphabet is the set of distinct
+     * (token, actions, accept) labels on the transitions, so states are only merged if they agree on
+     * actions as well as targets. Accept states and states with different actions or patterns start in
+     * different blocks, and the implicit reject state is kept in a block of its own so that live states are
+     * never folded into it. On exit every transition points at the representative of its block.
+     */
+    private void mergeEquivalentStates(List<DFAState> states) {
+        int count = states.size();
+        int dead = count;
+        Map<DFAState, Integer> index = new HashMap<>();
+        for (int i = 0; i != count; i++)
+            index.put(states.get(i), i);
+
+        // number the transition labels and build the complete transition function
+        Map<List<Object>, Integer> symbols = new HashMap<>();
+        List<int[]> delta = new ArrayList<>();
+        for (int i = 0; i != count; i++) {
+            for (DFATransition trans : states.get(i).getTransitionMap().values()) {
+                List<Object> key = Arrays.asList(trans.getToken(), trans.getActions(), trans.isAccept());
+                Integer symbol = symbols.get(key);
+                if (symbol == null) {
+                    symbol = symbols.size();
+                    symbols.put(key, symbol);
+                    int[] row = new int[count + 1];
+                    Arrays.fill(row, dead);
+                    delta.add(row);
+                }
+                delta.get(symbol)[i] = index.get(trans.getNext());
+            }
+        }
+        // inverse transitions, one compressed row per symbol
+        int[][] invStart = new int[delta.size()][];
+        int[][] invSource = new int[delta.size()][];
+        for (int sym = 0; sym != delta.size(); sym++) {
+            int[] row = delta.get(sym);
+            int[] start = new int[count + 2];
+            for (int i = 0; i <= count; i++)
+                start[row[i] + 1]++;
+            for (int i = 0; i <= count; i++)
+                start[i + 1] += start[i];
+            int[] fill = Arrays.copyOf(start, count + 1);
+            int[] source = new int[count + 1];
+            for (int i = 0; i <= count; i++)
+                source[fill[row[i]]++] = i;
+            invStart[sym] = start;
+            invSource[sym] = source;
+        }
+
+        // initial partition: by accept flag, state action and patterns, with the reject state alone
+        int[] elements = new int[count + 1];
+        int[] location = new int[count + 1];
+        int[] block = new int[count + 1];
+        int[] first = new int[count + 2];
+        int[] end = new int[count + 2];
+        int[] mid = new int[count + 2];
+        Map<List<Object>, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i != count; i++) {
+            DFAState state = states.get(i);
+            groups.computeIfAbsent(Arrays.asList(state.isAccept(), state.getAction(), Arrays.toString(state.getPatterns())), k -> new ArrayList<>()).add(i);
+        }
+        groups.put(Collections.singletonList(null), Collections.singletonList(dead));
+        int blocks = 0;
+        int pos = 0;
+        for (List<Integer> group : groups.values()) {
+            first[blocks] = mid[blocks] = pos;
+            for (int i : group) {
+                elements[pos] = i;
+                location[i] = pos++;
+                block[i] = blocks;
+            }
+            end[blocks++] = pos;
+        }
+
+        Deque<Integer> work = new ArrayDeque<>();
+        boolean[] inWork = new boolean[count + 2];
+        for (int b = 0; b != blocks; b++) {
+            work.add(b);
+            inWork[b] = true;
+        }
+        List<Integer> touched = new ArrayList<>();
+        while (!work.isEmpty()) {
+            options.checkDeadline();
+            int splitter = work.remove();
+            inWork[splitter] = false;
+            int[] members = Arrays.copyOfRange(elements, first[splitter], end[splitter]);
+            for (int sym = 0; sym != delta.size(); sym++) {
+                int[] start = invStart[sym];
+                int[] source = invSource[sym];
+                for (int target : members) {
+                    for (int j = start[target]; j != start[target + 1]; j++) {
+                        int s = source[j];
+                        int b = block[s];
+                        int l = location[s];
+                        if (l < mid[b])
+                            continue;       // already marked
+                        if (mid[b] == first[b])
+                            touched.add(b);
+                        int other = elements[mid[b]];
+                        elements[mid[b]] = s;
+                        location[s] = mid[b];
+                        elements[l] = other;
+                        location[other] = l;
+                        mid[b]++;
+                    }
+                }
+                for (int b : touched) {
+                    if (mid[b] == end[b]) {
+                        mid[b] = first[b];
+                        continue;
+                    }
+                    // move the marked part into a new block
+                    int nb = blocks++;
+                    first[nb] = mid[nb] = first[b];
+                    end[nb] = mid[b];
+                    first[b] = mid[b];
+                    for (int j = first[nb]; j != end[nb]; j++)
+                        block[elements[j]] = nb;
+                    if (inWork[b] || end[nb] - first[nb] <= end[b] - first[b]) {
+                        work.add(nb);
+                        inWork[nb] = true;
+                    } else {
+                        work.add(b);
+                        inWork[b] = true;
+                    }
+                }
+                touched.clear();
+            }
+        }
+
+        // the lowest numbered state in each block represents it
+        DFAState[] representative = new DFAState[blocks];
+        for (int i = 0; i != count; i++) {
+            if (representative[block[i]] == null)
+                representative[block[i]] = states.get(i);
+        }
+        for (DFAState rep : representative) {
+            if (rep == null)
+                continue;
+            for (DFATransition trans : rep.getTransitionMap().values())
+                trans.setNext(representative[block[index.get(trans.getNext())]]);
+        }
+        initialState = representative[block[index.get(initialState)]];
+    }
+
+    // depth first in transition order, with an explicit stack since a DFA can have many more states than the
+    // call stack has room for
+    private static void addReachable(DFAState state, Set<DFAState> states, boolean throughAccept) {
+        if (!throughAccept && state.isAccept() || !states.add(state))
             return;
-        states.add(state);
-        for (DFATransition transition : state.getTransitionMap().values()) {
-            addUsed(transition.getNext(), states);
+        Deque<Iterator<DFATransition>> stack = new ArrayDeque<>();
+        stack.push(state.getTransitionMap().values().iterator());
+        while (!stack.isEmpty()) {
+            Iterator<DFATransition> iterator = stack.peek();
+            if (!iterator.hasNext()) {
+                stack.pop();
+                continue;
+            }
+            DFAState next = iterator.next().getNext();
+            if ((throughAccept || !next.isAccept()) && states.add(next))
+                stack.push(next.getTransitionMap().values().iterator());
         }
     }
 
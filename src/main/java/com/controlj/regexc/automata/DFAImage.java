@@ -0,0 +1,238 @@
+package com.controlj.regexc.automata;
+
+import com.controlj.regexc.util.CommonSets;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A compiled {@link DFA} in a versioned binary format, which can be written to a file and loaded again by mapping it,
+ * with no subset construction and no objects rebuilt. The tables are read in place from the buffer.
+ * <p>
+ * The format is little-endian and every section is a whole number of ints:
+ * <pre>
+ *   header         10 ints: magic, version, class count, row count (states plus the reject state),
+ *                  initial, reject and first accept state (premultiplied by the class count),
+ *                  action pool length, total length in bytes, reserved
+ *   class map      256 bytes, the class of each character
+ *   table          row count * class count ints, the premultiplied next state
+ *   final states   (row count + 31) / 32 ints, a bit for each accept state
+ *   action table   row count * class count ints, the offset in the action pool of the actions on each transition
+ *   action pool    for each distinct set of actions, its size followed by the action ids; the empty set is first
+ * </pre>
+ */
+public class DFAImage {
+    public static final int MAGIC = 0x41464452;     // "RDFA" in little-endian
+    public static final int VERSION = 1;
+    private static final int HEADER_INTS = 10;
+    private static final int[] NO_ACTIONS = new int[0];
+
+    private final ByteBuffer buffer;
+    private final int classCount;
+    private final int rowCount;
+    private final int initState;
+    private final int rejectState;
+    private final int acceptState;
+    private final int classMapOffset;
+    private final IntBuffer table;
+    private final IntBuffer finalStates;
+    private final IntBuffer actionTable;
+    private final IntBuffer actionPool;
+
+    private DFAImage(ByteBuffer buffer) {
+        this.buffer = buffer;
+        IntBuffer header = buffer.asIntBuffer();
+        if (buffer.remaining() < HEADER_INTS * 4 || header.get(0) != MAGIC)
+            throw new IllegalArgumentException("Not a compiled DFA");
+        if (header.get(1) != VERSION)
+            throw new IllegalArgumentException("Unsupported compiled DFA version " + header.get(1));
+        classCount = header.get(2);
+        rowCount = header.get(3);
+        initState = header.get(4);
+        rejectState = header.get(5);
+        acceptState = header.get(6);
+        int poolLength = header.get(7);
+        if (classCount < 1 || classCount > CommonSets.ENCODING_LENGTH || rowCount < 1 || poolLength < 1
+                || header.get(8) != buffer.remaining() || header.get(8) != length(classCount, rowCount, poolLength))
+            throw new IllegalArgumentException("Compiled DFA is truncated or corrupt");
+        classMapOffset = HEADER_INTS * 4;
+        int offset = (classMapOffset + CommonSets.ENCODING_LENGTH) / 4;
+        IntBuffer ints = buffer.asIntBuffer();
+        table = slice(ints, offset, rowCount * classCount);
+        offset += rowCount * classCount;
+        finalStates = slice(ints, offset, (rowCount + 31) / 32);
+        offset += (rowCount + 31) / 32;
+        actionTable = slice(ints, offset, rowCount * classCount);
+        offset += rowCount * classCount;
+        actionPool = slice(ints, offset, poolLength);
+    }
+
+    private static IntBuffer slice(IntBuffer ints, int offset, int length) {
+        IntBuffer duplicate = ints.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + length);
+        return duplicate.slice();
+    }
+
+    private static int length(int classCount, int rowCount, int poolLength) {
+        return (HEADER_INTS + CommonSets.ENCODING_LENGTH / 4 + 2 * rowCount * classCount + (rowCount + 31) / 32
+                + poolLength) * 4;
+    }
+
+    /**
+     * Convert a DFA to the binary format.
+     *
+     * @return a little-endian buffer holding the image, positioned at its start
+     */
+    public static ByteBuffer write(DFA dfa) {
+        int classCount = dfa.getClassCount();
+        int[] flatTable = dfa.getFlatTable();
+        int[] flatActions = dfa.getFlatActions();
+        int rowCount = flatTable.length / classCount;
+        List<Set<Integer>> actionSets = dfa.getActionSets();
+        int[] poolOffsets = new int[actionSets.size()];
+        int poolLength = 0;
+        for (int i = 0; i != actionSets.size(); i++) {
+            poolOffsets[i] = poolLength;
+            poolLength += 1 + actionSets.get(i).size();
+        }
+        int length = length(classCount, rowCount, poolLength);
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(classCount).putInt(rowCount);
+        buffer.putInt(dfa.getFlatInitState()).putInt(dfa.getFlatRejectState()).putInt(dfa.getFlatAcceptState());
+        buffer.putInt(poolLength).putInt(length).putInt(0);
+        buffer.put(dfa.getClassMap(), 0, CommonSets.ENCODING_LENGTH);
+        for (int next : flatTable)
+            buffer.putInt(next);
+        boolean[] finalStates = dfa.getFinalStates();
+        int[] bits = new int[(rowCount + 31) / 32];
+        for (int st = 0; st != finalStates.length; st++) {
+            if (finalStates[st])
+                bits[st / 32] |= 1 << (st % 32);
+        }
+        for (int word : bits)
+            buffer.putInt(word);
+        for (int action : flatActions)
+            buffer.putInt(poolOffsets[action]);
+        for (Set<Integer> actions : actionSets) {
+            buffer.putInt(actions.size());
+            for (int action : actions)
+                buffer.putInt(action);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    public static void write(DFA dfa, Path file) throws IOException {
+        ByteBuffer buffer = write(dfa);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+    }
+
+    /**
+     * Use an image in a buffer, from its position to its limit. The buffer's contents must not change afterwards.
+     *
+     * @throws IllegalArgumentException if the buffer does not hold a valid image of this version
+     */
+    public static DFAImage load(ByteBuffer buffer) {
+        return new DFAImage(buffer.slice().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /**
+     * Load an image by mapping its file read-only.
+     */
+    public static DFAImage map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return load(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int getClassCount() {
+        return classCount;
+    }
+
+    /**
+     * @return the number of states, not counting the reject state
+     */
+    public int getStateCount() {
+        return rowCount - 1;
+    }
+
+    public int getInitState() {
+        return initState;
+    }
+
+    public int getRejectState() {
+        return rejectState;
+    }
+
+    /**
+     * @return the premultiplied number of the first accept state
+     */
+    public int getAcceptState() {
+        return acceptState;
+    }
+
+    /**
+     * @param state a premultiplied state number
+     * @param ch    the next character
+     * @return the premultiplied next state
+     */
+    public int next(int state, int ch) {
+        if (ch >= CommonSets.ENCODING_LENGTH)
+            return rejectState;
+        return table.get(state + (buffer.get(classMapOffset + ch) & 0xFF));
+    }
+
+    /**
+     * @param state a premultiplied state number
+     */
+    public boolean isFinal(int state) {
+        int st = state / classCount;
+        return (finalStates.get(st / 32) & 1 << (st % 32)) != 0;
+    }
+
+    /**
+     * @return the ids of the actions performed on the transition from a premultiplied state on a character
+     */
+    public int[] getActions(int state, int ch) {
+        int offset = actionTable.get(state + (buffer.get(classMapOffset + ch) & 0xFF));
+        int count = actionPool.get(offset);
+        if (count == 0)
+            return NO_ACTIONS;
+        int[] actions = new int[count];
+        for (int i = 0; i != count; i++)
+            actions[i] = actionPool.get(offset + 1 + i);
+        return actions;
+    }
+
+    public boolean match(CharSequence str) {
+        int s = initState;
+        for (int i = 0, length = str.length(); i != length; i++) {
+            s = next(s, str.charAt(i));
+            if (s == rejectState)
+                return false;
+        }
+        return s >= acceptState;
+    }
+
+    public boolean match(byte[] bytes, int offset, int length) {
+        int s = initState;
+        for (int i = offset, end = offset + length; i != end; i++) {
+            s = next(s, bytes[i] & 0xFF);
+            if (s == rejectState)
+                return false;
+        }
+        return s >= acceptState;
+    }
+}
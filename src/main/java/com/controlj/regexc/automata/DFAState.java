@@ -28,6 +28,7 @@ public class DFAState {
     private boolean accept;       // if this is an accept state
     private Map<Character, DFATransition> transitionMap = new LinkedHashMap<>();      // transitions
     private String action;      // the action to be performed when this state
+    private int[] patterns;     // for an accept state built from a set of patterns, the ones that matched
 
     public DFAState() {
     }
@@ -78,6 +79,14 @@ public class DFAState {
         this.action = action;
     }
 
+    public int[] getPatterns() {
+        return patterns;
+    }
+
+    public void setPatterns(int[] patterns) {
+        this.patterns = patterns;
+    }
+
     // convert our transitions to a list of transition sets
     public List<TransitionSet> getTransitionSets() {
         ArrayList<TransitionSet> list = new ArrayList<>();
@@ -0,0 +1,191 @@
+package com.controlj.regexc.automata;
+
+import com.controlj.regexc.tree.node.*;
+import com.controlj.regexc.util.CommonSets;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * The Glushkov (position) automaton of a syntax tree, simulated with bit-parallelism. Every character leaf of the
+ * tree is a position, and the set of active positions is kept in a single long, with bit 0 standing for the initial
+ * state. A step is a lookup of the positions that can follow the active ones, ANDed with the positions that accept
+ * the input character. The follow sets are looked up a byte of the active set at a time, and patterns that are a
+ * plain sequence of characters reduce to Shift-And, one shift and one AND per character.
+ * <p>
+ * Construction is a single walk of the tree, so this is much cheaper to build than a {@link DFA}, but it is limited
+ * to {@link #MAX_POSITIONS} positions and patterns without actions.
+ */
+public class GlushkovNFA {
+    public static final int MAX_POSITIONS = 63;
+
+    private final long[] charMask = new long[CommonSets.ENCODING_LENGTH];     // positions labelled with each char
+    private final long[] follow = new long[MAX_POSITIONS + 1];
+    private final long[][] followTable;     // follow sets of each byte of the active set, per byte
+    private final long finalMask;
+    private final boolean linear;       // each position is only followed by the next one
+    private int positions;
+
+    // what is known about a subtree
+    private static class Info {
+        boolean nullable;
+        long first;
+        long last;
+
+        Info(boolean nullable, long first, long last) {
+            this.nullable = nullable;
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+    public GlushkovNFA(Node root) {
+        if (countPositions(root) < 0)
+            throw new IllegalArgumentException("Pattern is not suitable for bit-parallel matching");
+        Info info = build(root);
+        follow[0] = info.first;
+        finalMask = info.last | (info.nullable ? 1 : 0);
+        boolean chain = true;
+        for (int p = 0; p <= positions; p++) {
+            if (follow[p] != (p == positions ? 0 : 1L << (p + 1)))
+                chain = false;
+        }
+        linear = chain;
+        followTable = new long[(positions + 8) / 8][256];
+        for (int chunk = 0; chunk != followTable.length; chunk++) {
+            long[] table = followTable[chunk];
+            for (int v = 1; v != 256; v++) {
+                int low = Integer.numberOfTrailingZeros(v);
+                int p = chunk * 8 + low;
+                table[v] = table[v & (v - 1)] | (p <= positions ? follow[p] : 0);
+            }
+        }
+    }
+
+    /**
+     * Count the positions in a syntax tree.
+     *
+     * @param root the root of the tree
+     * @return the number of character leaves, or -1 if the tree has more than {@link #MAX_POSITIONS} of them or
+     * contains something that cannot be simulated, such as an action
+     */
+    public static int countPositions(Node root) {
+        if (root instanceof LChar) {
+            return ((LChar) root).c < CommonSets.ENCODING_LENGTH ? 1 : -1;
+        }
+        if (root instanceof LCharSet)
+            return 1;
+        if (root instanceof LClosure || root instanceof LNull)
+            return 0;
+        if (root instanceof BConcat || root instanceof BOr) {
+            int left = countPositions(root.left());
+            int right = left < 0 ? -1 : countPositions(root.right());
+            if (right < 0 || left + right > MAX_POSITIONS)
+                return -1;
+            return left + right;
+        }
+        if (root instanceof BMany)
+            return countPositions(root.left());
+        return -1;
+    }
+
+    private Info build(Node node) {
+        if (node instanceof LChar) {
+            long bit = 1L << ++positions;
+            charMask[((LChar) node).c] |= bit;
+            return new Info(false, bit, bit);
+        }
+        if (node instanceof LCharSet) {
+            long bit = 1L << ++positions;
+            BitSet chars = ((LCharSet) node).chars;
+            for (int c = chars.nextSetBit(0); c >= 0; c = chars.nextSetBit(c + 1))
+                charMask[c] |= bit;
+            return new Info(false, bit, bit);
+        }
+        if (node instanceof BConcat) {
+            Info left = build(node.left());
+            Info right = build(node.right());
+            addFollow(left.last, right.first);
+            return new Info(left.nullable && right.nullable,
+                    left.first | (left.nullable ? right.first : 0),
+                    right.last | (right.nullable ? left.last : 0));
+        }
+        if (node instanceof BOr) {
+            Info left = build(node.left());
+            Info right = build(node.right());
+            return new Info(left.nullable || right.nullable, left.first | right.first, left.last | right.last);
+        }
+        if (node instanceof BMany) {
+            // the right hand side is an LNull placeholder
+            Info left = build(node.left());
+            addFollow(left.last, left.first);
+            return new Info(true, left.first, left.last);
+        }
+        // LClosure and LNull match the empty string
+        return new Info(true, 0, 0);
+    }
+
+    private void addFollow(long from, long to) {
+        for (long set = from; set != 0; set &= set - 1)
+            follow[Long.numberOfTrailingZeros(set)] |= to;
+    }
+
+    public int getPositionCount() {
+        return positions;
+    }
+
+    // the positions active after reading a character with the given mask
+    private long step(long active, long mask) {
+        if (linear)
+            return (active << 1) & mask;
+        long next = 0;
+        for (int chunk = 0; active != 0; chunk++, active >>>= 8)
+            next |= followTable[chunk][(int) active & 0xFF];
+        return next & mask;
+    }
+
+    public boolean match(CharSequence str) {
+        long active = 1;
+        for (int i = 0, length = str.length(); i != length; i++) {
+            active = step(active, charMask[str.charAt(i)]);
+            if (active == 0)
+                return false;
+        }
+        return (active & finalMask) != 0;
+    }
+
+    public boolean match(char[] chars, int offset, int length) {
+        long active = 1;
+        for (int i = offset, end = offset + length; i != end; i++) {
+            active = step(active, charMask[chars[i]]);
+            if (active == 0)
+                return false;
+        }
+        return (active & finalMask) != 0;
+    }
+
+    public boolean match(byte[] bytes, int offset, int length) {
+        long active = 1;
+        for (int i = offset, end = offset + length; i != end; i++) {
+            active = step(active, charMask[bytes[i] & 0xFF]);
+            if (active == 0)
+                return false;
+        }
+        return (active & finalMask) != 0;
+    }
+
+    /**
+     * Match the bytes between the position and limit of a buffer, leaving the position unchanged.
+     */
+    public boolean match(ByteBuffer buffer) {
+        if (buffer.hasArray())
+            return match(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        long active = 1;
+        for (int i = buffer.position(), end = buffer.limit(); i != end; i++) {
+            active = step(active, charMask[buffer.get(i) & 0xFF]);
+            if (active == 0)
+                return false;
+        }
+        return (active & finalMask) != 0;
+    }
+}
@@ -0,0 +1,239 @@
+package com.controlj.regexc.automata;
+
+import com.controlj.regexc.util.CommonSets;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A DFA that is built on the fly while matching. Each DFA state is a set of NFA states, and is only constructed
+ * when the input first reaches it. Constructed states and their transitions are kept in a cache of bounded size;
+ * when the cache is full it is cleared and construction restarts from the current state, so memory use stays
+ * predictable even for patterns whose full DFA would be exponentially large.
+ * <p>
+ * Action tokens are treated as empty transitions, since they do not consume input.
+ * <p>
+ * States never change once built, except that each transition is filled in the first time it is needed. Building
+ * a state or clearing the cache takes a lock, but following a known transition does not, so one LazyDFA can match on
+ * any number of threads at once. Clearing the cache starts a new set of states, and a match already under way
+ * carries on with the old ones.
+ */
+public class LazyDFA {
+    public static final int DEFAULT_CACHE_SIZE = 4096;     // maximum number of cached DFA states
+
+    private final List<NFAState> nfaStateList;
+    private final int[][] closures;     // epsilon closure of each NFA state, by id
+    private final int finalId;
+    private final byte[] classMap;
+    private final char[] representatives;
+    private final int classCount;
+    private final int cacheSize;
+    private final BitSet initialSet;
+    private final State reject;
+
+    // the cached states, guarded by the lock on this object
+    private final Map<BitSet, State> cache = new HashMap<>();
+    private volatile State initial;
+    private int clearCount;
+
+    // a DFA state, safely published by its final fields; a null transition is not built yet
+    private static final class State {
+        final BitSet set;
+        final boolean accept;
+        final State[] next;
+
+        State(BitSet set, boolean accept, int classCount) {
+            this.set = set;
+            this.accept = accept;
+            next = new State[classCount];
+        }
+    }
+
+    public LazyDFA(List<NFAState> nfaStateList) {
+        this(nfaStateList, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize the most DFA states to cache, at least 3: after clearing, the cache holds the initial state,
+     *                  the current state and the state being built
+     */
+    public LazyDFA(List<NFAState> nfaStateList, int cacheSize) {
+        if (cacheSize < 3)
+            throw new IllegalArgumentException("cache must hold at least 3 states");
+        this.nfaStateList = nfaStateList;
+        this.cacheSize = cacheSize;
+        finalId = nfaStateList.get(1).getId();
+        closures = new int[nfaStateList.size()][];
+        for (NFAState state : nfaStateList)
+            closures[state.getId()] = closure(state);
+        CharClasses classes = CharClasses.forNFA(nfaStateList, CommonSets.ENCODING_LENGTH);
+        classMap = classes.toByteMap();
+        representatives = classes.getRepresentatives();
+        classCount = classes.getCount();
+        reject = new State(null, false, classCount);
+        Arrays.fill(reject.next, reject);
+        initialSet = new BitSet();
+        for (int id : closures[nfaStateList.get(0).getId()])
+            initialSet.set(id);
+        initial = add(initialSet);
+    }
+
+    // the epsilon closure of an NFA state, by id, following action tokens too
+    static int[] closure(NFAState state) {
+        Set<NFAState> closure = new LinkedHashSet<>();
+        Stack<NFAState> stack = new Stack<>();
+        stack.push(state);
+        do {
+            NFAState pop = stack.pop();
+            if (!closure.add(pop))
+                continue;
+            stack.addAll(pop.getDirectTable());
+            for (Map.Entry<Character, Set<NFAState>> entry : pop.getTransitionMap().entrySet()) {
+                if (entry.getKey() >= CommonSets.ENCODING_LENGTH)
+                    stack.addAll(entry.getValue());
+            }
+        } while (!stack.isEmpty());
+        int[] result = new int[closure.size()];
+        int i = 0;
+        for (NFAState s : closure)
+            result[i++] = s.getId();
+        return result;
+    }
+
+    private State add(BitSet set) {
+        State state = new State(set, set.get(finalId), classCount);
+        cache.put(set, state);
+        return state;
+    }
+
+    // the cached state for a set, clearing the cache if it is full
+    private State intern(BitSet set) {
+        State state = cache.get(set);
+        if (state == null) {
+            if (cache.size() == cacheSize)
+                clear();
+            state = cache.get(set);     // it might be the initial state
+            if (state == null)
+                state = add(set);
+        }
+        return state;
+    }
+
+    // build the transition from state on class k
+    private synchronized State step(State state, int k) {
+        if (state.next[k] != null)
+            return state.next[k];       // built by another thread
+        if (cache.get(state.set) != state) {
+            // the cache has been cleared since this match started
+            state = intern(state.set);
+            if (state.next[k] != null)
+                return state.next[k];
+        }
+        BitSet next = new BitSet();
+        char token = representatives[k];
+        List<NFAState> targets = new ArrayList<>();
+        for (int i = state.set.nextSetBit(0); i >= 0; i = state.set.nextSetBit(i + 1)) {
+            targets.clear();
+            nfaStateList.get(i).addTargets(token, targets);
+            for (NFAState target : targets) {
+                for (int id : closures[target.getId()])
+                    next.set(id);
+            }
+        }
+        State result;
+        if (next.isEmpty()) {
+            result = reject;
+        } else {
+            result = cache.get(next);
+            if (result == null) {
+                if (cache.size() == cacheSize) {
+                    clear();
+                    state = intern(state.set);
+                }
+                result = intern(next);
+            }
+        }
+        state.next[k] = result;
+        return result;
+    }
+
+    private void clear() {
+        clearCount++;
+        cache.clear();
+        initial = add(initialSet);
+    }
+
+    // the state after reading c in state s
+    private State next(State s, int c) {
+        int k = classMap[c] & 0xFF;
+        State next = s.next[k];
+        return next == null ? step(s, k) : next;
+    }
+
+    public boolean match(CharSequence str) {
+        State s = initial;
+        for (int i = 0, length = str.length(); i != length; i++) {
+            s = next(s, str.charAt(i));
+            if (s == reject)
+                return false;
+        }
+        return s.accept;
+    }
+
+    public boolean match(char[] chars, int offset, int length) {
+        State s = initial;
+        for (int i = offset, end = offset + length; i != end; i++) {
+            s = next(s, chars[i]);
+            if (s == reject)
+                return false;
+        }
+        return s.accept;
+    }
+
+    public boolean match(byte[] bytes, int offset, int length) {
+        State s = initial;
+        for (int i = offset, end = offset + length; i != end; i++) {
+            s = next(s, bytes[i] & 0xFF);
+            if (s == reject)
+                return false;
+        }
+        return s.accept;
+    }
+
+    /**
+     * Match the bytes between the position and limit of a buffer, leaving the position unchanged.
+     */
+    public boolean match(ByteBuffer buffer) {
+        if (buffer.hasArray())
+            return match(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        State s = initial;
+        for (int i = buffer.position(), end = buffer.limit(); i != end; i++) {
+            s = next(s, buffer.get(i) & 0xFF);
+            if (s == reject)
+                return false;
+        }
+        return s.accept;
+    }
+
+    /**
+     * @return the number of DFA states currently cached
+     */
+    public synchronized int getCachedStateCount() {
+        return cache.size();
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public int getClassCount() {
+        return classCount;
+    }
+
+    /**
+     * @return the number of times the cache has filled up and been cleared
+     */
+    public synchronized int getClearCount() {
+        return clearCount;
+    }
+}
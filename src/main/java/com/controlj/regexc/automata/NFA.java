@@ -1,6 +1,8 @@
 package com.controlj.regexc.automata;
 
 import com.controlj.regexc.tree.node.*;
+import com.controlj.regexc.util.CommonSets;
+import com.controlj.regexc.util.CompileOptions;
 
 import java.util.*;
 
@@ -15,8 +17,19 @@ public class NFA {
     private final Stack<NFAState> stateStack;
     private final NFAStateFactory stateFactory;
     private final List<NFAState> stateList;
+    private final CompileOptions options;
+    private long buildNanos;
 
     public NFA(Node root) {
+        this(root, null);
+    }
+
+    /**
+     * @param options limits on the number of states and the time taken, or null for none
+     */
+    public NFA(Node root, CompileOptions options) {
+        this.options = options == null ? new CompileOptions().start() : options.start();
+        long start = System.nanoTime();
         stateList = new ArrayList<>();
         stateFactory = new NFAStateFactory();
         NFAState initState = newState();
@@ -25,11 +38,46 @@ public class NFA {
         stateStack.push(finalState);
         stateStack.push(initState);
         dfs(root);
+        buildNanos = System.nanoTime() - start;
+    }
+
+    private NFA(List<NFAState> stateList, NFAStateFactory stateFactory) {
+        this.stateList = stateList;
+        this.stateFactory = stateFactory;
+        options = new CompileOptions().start();
+        stateStack = new Stack<>();
+    }
+
+    /**
+     * Build one NFA for a set of patterns, as alternates. The final state of each pattern is tagged with its index in
+     * the list before leading on to the shared final state, so a DFA built from this NFA can tell which patterns
+     * matched.
+     */
+    public static NFA union(List<Node> roots) {
+        long start = System.nanoTime();
+        NFA nfa = new NFA(new ArrayList<>(), new NFAStateFactory());
+        NFAState initState = nfa.newState();
+        NFAState finalState = nfa.newState();
+        for (int i = 0; i != roots.size(); i++) {
+            NFAState patternInit = nfa.newState();
+            NFAState patternFinal = nfa.newState();
+            patternFinal.setTag(i);
+            initState.directRule(patternInit);
+            patternFinal.directRule(finalState);
+            nfa.stateStack.push(patternFinal);
+            nfa.stateStack.push(patternInit);
+            nfa.dfs(roots.get(i));
+        }
+        nfa.buildNanos = System.nanoTime() - start;
+        return nfa;
     }
 
     private NFAState newState() {
         NFAState nfaState = stateFactory.create();
         stateList.add(nfaState);
+        options.checkNfaStates(stateList.size());
+        if ((stateList.size() & 0xFF) == 0)
+            options.checkDeadline();
         return nfaState;
     }
 
@@ -45,12 +93,98 @@ public class NFA {
         return stateList;
     }
 
+    /**
+     * @return the time taken to build the NFA from the syntax tree, in nanoseconds
+     */
+    public long getBuildNanos() {
+        return buildNanos;
+    }
+
+    /**
+     * Build an NFA for the reversed language, i.e. one that matches strings read backwards. The initial and final
+     * states swap roles and ids, so the initial state is still first in the list and the final state second.
+     *
+     * @return the reversed NFA
+     */
+    public NFA reverse() {
+        NFAState[] result = new NFAState[stateList.size()];
+        for (int i = 0; i != result.length; i++)
+            result[i] = new NFAState(i);
+        for (NFAState state : stateList) {
+            NFAState from = result[swapEnds(state.getId())];
+            for (NFAState target : state.getDirectTable())
+                result[swapEnds(target.getId())].directRule(from);
+            for (Map.Entry<Character, Set<NFAState>> entry : state.getTransitionMap().entrySet()) {
+                for (NFAState target : entry.getValue())
+                    result[swapEnds(target.getId())].transitionRule(entry.getKey(), from);
+            }
+            for (Map.Entry<BitSet, Set<NFAState>> entry : state.getSetTransitionMap().entrySet()) {
+                for (NFAState target : entry.getValue())
+                    result[swapEnds(target.getId())].setTransitionRule(entry.getKey(), from);
+            }
+        }
+        return new NFA(new ArrayList<>(Arrays.asList(result)), null);
+    }
+
+    /**
+     * Find the literal that every match starts with, by following the NFA from the initial state for as long as
+     * there is only one character it can read and it has not reached the final state.
+     *
+     * @param maxLength the longest prefix wanted
+     * @return the prefix, which is empty if matches can start with more than one character
+     */
+    public String literalPrefix(int maxLength) {
+        StringBuilder prefix = new StringBuilder();
+        Set<NFAState> states = closure(Collections.singleton(stateList.get(0)));
+        while (prefix.length() != maxLength && !states.contains(stateList.get(1))) {
+            Set<NFAState> next = new HashSet<>();
+            int ch = -1;
+            for (NFAState state : states) {
+                if (!state.getSetTransitionMap().isEmpty())
+                    return prefix.toString();       // sets have more than one member
+                for (Map.Entry<Character, Set<NFAState>> entry : state.getTransitionMap().entrySet()) {
+                    if (ch != -1 && ch != entry.getKey())
+                        return prefix.toString();
+                    ch = entry.getKey();
+                    next.addAll(entry.getValue());
+                }
+            }
+            if (ch == -1 || ch >= CommonSets.ENCODING_LENGTH)
+                break;
+            prefix.append((char) ch);
+            states = closure(next);
+        }
+        return prefix.toString();
+    }
+
+    private static Set<NFAState> closure(Collection<NFAState> states) {
+        Set<NFAState> closure = new HashSet<>();
+        Stack<NFAState> stack = new Stack<>();
+        stack.addAll(states);
+        while (!stack.isEmpty()) {
+            NFAState state = stack.pop();
+            if (closure.add(state))
+                stack.addAll(state.getDirectTable());
+        }
+        return closure;
+    }
+
+    private static int swapEnds(int id) {
+        return id < 2 ? 1 - id : id;
+    }
+
     public void visit(LChar lChar) {
         NFAState i = stateStack.pop();
         NFAState f = stateStack.pop();
         i.transitionRule(lChar.c, f);
     }
 
+    public void visit(LCharSet lCharSet) {
+        NFAState i = stateStack.pop();
+        NFAState f = stateStack.pop();
+        i.setTransitionRule(lCharSet.chars, f);
+    }
+
     public void visit(LNull lNull) {
         // do nothing
     }
@@ -104,6 +238,14 @@ public class NFA {
                 }
                 sb.append("; ");
             }
+            for (Map.Entry<BitSet, Set<NFAState>> entry : state.getSetTransitionMap().entrySet()) {
+                sb.append(entry.getKey()).append(" -> ");
+                for (NFAState n : entry.getValue()) {
+                    sb.append(n.getId());
+                    sb.append(", ");
+                }
+                sb.append("; ");
+            }
             sb.append('\n');
         }
         return sb.toString();
@@ -9,12 +9,14 @@ public class NFAState {
 
     private Set<NFAState> directTable;
     private Map<Character, Set<NFAState>> transitionMap;
+    private Map<BitSet, Set<NFAState>> setTransitionMap;    // transitions on any character of a set
     private int id;
     private int tag = -1;
 
     public NFAState(int id) {
         directTable = new HashSet<>();
         transitionMap = new HashMap<>();
+        setTransitionMap = new HashMap<>();
         this.id = id;
     }
 
@@ -27,6 +29,13 @@ public class NFAState {
         stateSet.add(state);
     }
 
+    /**
+     * Add a transition on every character in a set. The set is kept, not copied, so must not be changed afterwards.
+     */
+    public void setTransitionRule(BitSet chars, NFAState state) {
+        setTransitionMap.computeIfAbsent(chars, k -> new HashSet<>()).add(state);
+    }
+
     public void directRule(NFAState state) {
         directTable.add(state);
     }
@@ -56,10 +65,31 @@ public class NFAState {
         return directTable;
     }
 
+    /**
+     * @return the transitions on single characters and actions. Transitions on sets of characters are separate, see
+     * {@link #getSetTransitionMap()}.
+     */
     public Map<Character, Set<NFAState>> getTransitionMap() {
         return transitionMap;
     }
 
+    public Map<BitSet, Set<NFAState>> getSetTransitionMap() {
+        return setTransitionMap;
+    }
+
+    /**
+     * Add the states reached on a character, by both kinds of transition.
+     */
+    public void addTargets(char ch, Collection<NFAState> targets) {
+        Set<NFAState> states = transitionMap.get(ch);
+        if (states != null)
+            targets.addAll(states);
+        for (Map.Entry<BitSet, Set<NFAState>> entry : setTransitionMap.entrySet()) {
+            if (entry.getKey().get(ch))
+                targets.addAll(entry.getValue());
+        }
+    }
+
     @Override
     public String toString() {
         if (tag != -1)
@@ -0,0 +1,285 @@
+package com.controlj.regexc.automata;
+
+import com.controlj.regexc.util.CommonSets;
+import com.controlj.regexc.util.CompileOptions;
+
+import java.util.*;
+
+/**
+ * A DFA that finds, in a single forward scan, the end of the shortest or the longest non-empty match at the leftmost
+ * position where one starts.
+ * <p>
+ * Each state is a list of groups of NFA states, one for each start position whose matches are still possible, in
+ * order of start, as in RE2's longest-match DFA. A group drops the NFA states that an earlier group already holds,
+ * since the earlier start has the same future. Until a match is seen, each step appends a group for a match starting
+ * at the next position.
+ * <p>
+ * When a group reaches the final state, a match from its start ends here. The state accepts, the groups after it
+ * are dropped and no more starts are added. For the shortest match the group is replaced by a marker; for the longest
+ * it is kept, so that the state accepts again wherever a longer match from the same start ends, and is replaced by
+ * the marker only once it dies. An earlier group can still match later, and then replaces the last group. Once the
+ * marker is the first group, no earlier start can match, so the scan stops: the state is either an accepting stop
+ * state, or the reject state if the match ended earlier. The start of the match is the leftmost start of a match
+ * ending where the scan last accepted, which a DFA for the reversed pattern finds.
+ * <p>
+ * Action tokens are treated as empty transitions, as in {@link LazyDFA}. The flat table is laid out like that of
+ * {@link DFA}, with states premultiplied by the class count: non-accepting states first, then accepting states the
+ * scan continues from, then accepting stop states, then the reject state.
+ */
+public class SearchDFA {
+    private static final int[] MARKER = new int[0];      // a start that has matched; real groups are never empty
+
+    private final List<NFAState> nfaStateList;
+    private final int[][] closures;
+    private final int[] initClosure;
+    private final int finalId;
+    private final char[] representatives;
+    private final byte[] classMap;
+    private final int classCount;
+    private final CompileOptions options;
+    private final boolean longest;
+    private int[] flatTable;
+    private int acceptState;
+    private int stopState;
+    private int rejectState;
+    private int initState;
+    private long buildNanos;
+
+    // a DFA state while building
+    private static final class State {
+        final int[][] groups;
+        final boolean stopped;      // a match has been seen, so no more starts are added
+        final boolean accept;
+        int index;
+        int[] next;
+
+        State(int[][] groups, boolean stopped, boolean accept) {
+            this.groups = groups;
+            this.stopped = stopped;
+            this.accept = accept;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof State))
+                return false;
+            State state = (State) o;
+            return stopped == state.stopped && accept == state.accept && Arrays.deepEquals(groups, state.groups);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.deepHashCode(groups) * 4 + (stopped ? 2 : 0) + (accept ? 1 : 0);
+        }
+    }
+
+    public SearchDFA(List<NFAState> nfaStateList) {
+        this(nfaStateList, false, null);
+    }
+
+    public SearchDFA(List<NFAState> nfaStateList, CompileOptions options) {
+        this(nfaStateList, false, options);
+    }
+
+    /**
+     * @param nfaStateList the states of an anchored NFA, with the initial state first and the final state second
+     * @param longest      true to find the end of the longest match from the leftmost start, false for the shortest
+     * @param options      limits on the number of states, the size of the table and the time taken, or null for none
+     */
+    public SearchDFA(List<NFAState> nfaStateList, boolean longest, CompileOptions options) {
+        long start = System.nanoTime();
+        this.nfaStateList = nfaStateList;
+        this.longest = longest;
+        this.options = options == null ? new CompileOptions().start() : options.start();
+        closures = new int[nfaStateList.size()][];
+        for (NFAState state : nfaStateList)
+            closures[state.getId()] = LazyDFA.closure(state);
+        initClosure = sorted(closures[nfaStateList.get(0).getId()]);
+        finalId = nfaStateList.get(1).getId();
+        CharClasses classes = CharClasses.forNFA(nfaStateList, CommonSets.ENCODING_LENGTH);
+        classMap = classes.toByteMap();
+        representatives = classes.getRepresentatives();
+        classCount = classes.getCount();
+        build();
+        buildNanos = System.nanoTime() - start;
+    }
+
+    private void build() {
+        Map<State, State> states = new HashMap<>();
+        List<State> list = new ArrayList<>();
+        State reject = new State(new int[0][], true, false);
+        State init = new State(new int[][]{initClosure}, false, false);
+        for (State state : new State[]{init, reject}) {
+            state.index = list.size();
+            states.put(state, state);
+            list.add(state);
+        }
+        List<NFAState> targets = new ArrayList<>();
+        for (int i = 0; i != list.size(); i++) {
+            State state = list.get(i);
+            state.next = new int[classCount];
+            for (int k = 0; k != classCount; k++) {
+                State next = state == reject ? reject : step(state, representatives[k], targets);
+                State known = states.get(next);
+                if (known == null) {
+                    known = next;
+                    known.index = list.size();
+                    states.put(known, known);
+                    list.add(known);
+                    options.checkDfaStates(list.size() - 1);
+                    options.checkTableBytes((long) list.size() * classCount * 4);
+                    if ((list.size() & 0x3F) == 0)
+                        options.checkDeadline();
+                }
+                state.next[k] = known.index;
+            }
+        }
+        layout(list, init, reject);
+    }
+
+    // the state after reading a character
+    private State step(State state, char ch, List<NFAState> targets) {
+        List<int[]> groups = new ArrayList<>();
+        BitSet seen = new BitSet(closures.length);
+        boolean accept = false;
+        for (int g = 0; g != state.groups.length; g++) {
+            int[] group = state.groups[g];
+            if (group == MARKER) {
+                groups.add(MARKER);
+                break;
+            }
+            targets.clear();
+            for (int id : group)
+                nfaStateList.get(id).addTargets(ch, targets);
+            BitSet next = new BitSet(closures.length);
+            for (NFAState target : targets) {
+                for (int id : closures[target.getId()])
+                    next.set(id);
+            }
+            next.andNot(seen);
+            if (next.isEmpty()) {
+                // once a match has been seen the last group is its start, and a marker remembers it
+                if (state.stopped && g == state.groups.length - 1)
+                    groups.add(MARKER);
+                continue;
+            }
+            seen.or(next);
+            if (next.get(finalId)) {
+                // a match from this start ends here; later starts no longer matter
+                groups.add(longest ? next.stream().toArray() : MARKER);
+                accept = true;
+                break;
+            }
+            groups.add(next.stream().toArray());
+        }
+        boolean stopped = state.stopped || accept;
+        if (!stopped) {
+            BitSet fresh = new BitSet(closures.length);
+            for (int id : initClosure)
+                fresh.set(id);
+            fresh.andNot(seen);
+            if (!fresh.isEmpty())
+                groups.add(fresh.stream().toArray());
+        }
+        if (!accept && (groups.isEmpty() || groups.get(0) == MARKER))
+            return new State(new int[0][], true, false);       // reject
+        return new State(groups.toArray(new int[0][]), stopped, accept);
+    }
+
+    // number the states and build the flat table
+    private void layout(List<State> list, State init, State reject) {
+        boolean[] stop = new boolean[list.size()];
+        for (State state : list) {
+            if (!state.accept)
+                continue;
+            stop[state.index] = true;
+            for (int next : state.next)
+                stop[state.index] &= next == reject.index;
+        }
+        int[] number = new int[list.size()];
+        int n = 0;
+        for (int pass = 0; pass != 3; pass++) {
+            if (pass == 1)
+                acceptState = n;
+            else if (pass == 2)
+                stopState = n;
+            for (State state : list) {
+                int kind = !state.accept ? 0 : stop[state.index] ? 2 : 1;
+                if (state != reject && kind == pass)
+                    number[state.index] = n++;
+            }
+        }
+        rejectState = n;
+        number[reject.index] = n;
+        initState = number[init.index];
+        flatTable = new int[list.size() * classCount];
+        for (State state : list) {
+            int row = number[state.index] * classCount;
+            for (int k = 0; k != classCount; k++)
+                flatTable[row + k] = number[state.next[k]] * classCount;
+        }
+    }
+
+    private static int[] sorted(int[] ids) {
+        int[] result = ids.clone();
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * @return the transition table, with each state premultiplied by the class count
+     */
+    public int[] getFlatTable() {
+        return flatTable;
+    }
+
+    public byte[] getClassMap() {
+        return classMap;
+    }
+
+    public int getClassCount() {
+        return classCount;
+    }
+
+    public int getFlatInitState() {
+        return initState * classCount;
+    }
+
+    /**
+     * @return the premultiplied number of the first accepting state. A match ends after a character that leads to an
+     * accepting state other than the reject state.
+     */
+    public int getFlatAcceptState() {
+        return acceptState * classCount;
+    }
+
+    /**
+     * @return the premultiplied number of the first stop state. The scan stops at a state at or above this, which
+     * includes the reject state.
+     */
+    public int getFlatStopState() {
+        return stopState * classCount;
+    }
+
+    public int getFlatRejectState() {
+        return rejectState * classCount;
+    }
+
+    /**
+     * @return the number of states, not counting the reject state
+     */
+    public int getStateCount() {
+        return rejectState;
+    }
+
+    public long getBuildNanos() {
+        return buildNanos;
+    }
+
+    /**
+     * @return the size in bytes of the flat table and the class map
+     */
+    public long getTableBytes() {
+        return flatTable.length * 4L + classMap.length;
+    }
+}
@@ -0,0 +1,203 @@
+package com.controlj.regexc.tree;
+
+import com.controlj.regexc.tree.node.*;
+import com.controlj.regexc.util.CommonSets;
+
+import java.util.*;
+
+/**
+ * Finds a set of literals, at least one of which occurs in every string a syntax tree matches, so that inputs
+ * containing none of them can be rejected without running an automaton.
+ * <p>
+ * Each subtree is summarized bottom up by the finite set of strings it matches, when that is small, or otherwise by
+ * sets that every match starts with, ends with and contains. A concatenation joins the suffixes of its left side to
+ * the prefixes of its right side, so a literal split across nodes, such as {@code 'timeout='} after {@code .*}, is
+ * still found. An empty string in a set means nothing is known.
+ */
+public class RequiredLiterals {
+    public static final int MAX_LITERALS = 16;      // most alternative literals kept in a set
+    public static final int MAX_LENGTH = 16;        // longest literal kept
+    public static final int MIN_LENGTH = 2;         // shortest literal worth screening for
+
+    private static final Set<String> ANY = Collections.singleton("");
+
+    private final List<String> literals;
+    private final boolean prefix;
+
+    // what is known about the strings a subtree matches
+    private static class Info {
+        Set<String> exact;      // all of them, or null
+        Set<String> prefix;
+        Set<String> suffix;
+        Set<String> match;
+
+        Info(Set<String> exact) {
+            this.exact = exact;
+        }
+
+        Info(Set<String> prefix, Set<String> suffix, Set<String> match) {
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.match = match;
+        }
+
+        Set<String> prefix() {
+            return exact != null ? exact : prefix;
+        }
+
+        Set<String> suffix() {
+            return exact != null ? exact : suffix;
+        }
+
+        Set<String> match() {
+            return exact != null ? exact : match;
+        }
+    }
+
+    public RequiredLiterals(Node root) {
+        Info info = build(root);
+        Set<String> best = best(info.match(), best(info.prefix(), info.suffix()));
+        literals = shortest(best) < MIN_LENGTH ? Collections.<String>emptyList() : new ArrayList<>(best);
+        prefix = shortest(info.prefix()) >= MIN_LENGTH;
+    }
+
+    /**
+     * @return the literals, one of which every match contains, or an empty list if there is no useful set
+     */
+    public List<String> getLiterals() {
+        return literals;
+    }
+
+    /**
+     * @return true if every match also starts with a literal, in which case an automaton rejects most inputs
+     * without reading far and screening them first gains little
+     */
+    public boolean isPrefix() {
+        return prefix;
+    }
+
+    private static Info build(Node node) {
+        if (node instanceof LChar) {
+            char c = ((LChar) node).c;
+            if (c >= CommonSets.ENCODING_LENGTH)
+                return new Info(ANY, ANY, ANY);     // an action
+            return new Info(Collections.singleton(String.valueOf(c)));
+        }
+        if (node instanceof LCharSet) {
+            BitSet chars = ((LCharSet) node).chars;
+            if (chars.cardinality() > MAX_LITERALS)
+                return new Info(ANY, ANY, ANY);
+            Set<String> exact = new HashSet<>();
+            for (int c = chars.nextSetBit(0); c >= 0; c = chars.nextSetBit(c + 1))
+                exact.add(String.valueOf((char) c));
+            return new Info(exact);
+        }
+        if (node instanceof BConcat)
+            return concat(build(node.left()), build(node.right()));
+        if (node instanceof BOr) {
+            Info left = build(node.left());
+            Info right = build(node.right());
+            if (left.exact != null && right.exact != null) {
+                Set<String> exact = new HashSet<>(left.exact);
+                exact.addAll(right.exact);
+                if (exact.size() <= MAX_LITERALS)
+                    return new Info(exact);
+            }
+            return new Info(union(left.prefix(), right.prefix()), union(left.suffix(), right.suffix()),
+                    union(left.match(), right.match()));
+        }
+        if (node instanceof BMany)
+            return new Info(ANY, ANY, ANY);
+        // LClosure and LNull match the empty string
+        return new Info(ANY);
+    }
+
+    private static Info concat(Info left, Info right) {
+        if (left.exact != null && right.exact != null) {
+            Set<String> exact = cross(left.exact, right.exact);
+            if (exact != null && longest(exact) <= MAX_LENGTH)
+                return new Info(exact);
+        }
+        Set<String> prefix = left.prefix();
+        if (left.exact != null) {
+            Set<String> joined = cross(left.exact, right.prefix());
+            if (joined != null)
+                prefix = joined;
+        }
+        Set<String> suffix = right.suffix();
+        if (right.exact != null) {
+            Set<String> joined = cross(left.suffix(), right.exact);
+            if (joined != null)
+                suffix = joined;
+        }
+        Set<String> match = best(left.match(), right.match());
+        Set<String> joined = cross(left.suffix(), right.prefix());
+        if (joined != null)
+            match = best(match, trim(joined, false));
+        return new Info(trim(prefix, false), trim(suffix, true), match);
+    }
+
+    // the strings in either set, or ANY if that is too many or either is ANY
+    private static Set<String> union(Set<String> a, Set<String> b) {
+        if (a.contains("") || b.contains(""))
+            return ANY;
+        Set<String> union = new HashSet<>(a);
+        union.addAll(b);
+        return union.size() <= MAX_LITERALS ? union : ANY;
+    }
+
+    // each string in a followed by each in b, or null if that is too many
+    private static Set<String> cross(Set<String> a, Set<String> b) {
+        if (a.size() * b.size() > MAX_LITERALS)
+            return null;
+        Set<String> cross = new HashSet<>();
+        for (String x : a) {
+            for (String y : b)
+                cross.add(x + y);
+        }
+        return cross;
+    }
+
+    // shorten the strings in a set to at most MAX_LENGTH, keeping their ends for a suffix set
+    private static Set<String> trim(Set<String> set, boolean keepEnd) {
+        if (set.contains(""))
+            return ANY;
+        if (longest(set) <= MAX_LENGTH)
+            return set;
+        Set<String> trimmed = new HashSet<>();
+        for (String s : set) {
+            if (s.length() <= MAX_LENGTH)
+                trimmed.add(s);
+            else
+                trimmed.add(keepEnd ? s.substring(s.length() - MAX_LENGTH) : s.substring(0, MAX_LENGTH));
+        }
+        return trimmed;
+    }
+
+    private static int longest(Set<String> set) {
+        int longest = 0;
+        for (String s : set)
+            longest = Math.max(longest, s.length());
+        return longest;
+    }
+
+    private static int shortest(Set<String> set) {
+        int shortest = Integer.MAX_VALUE;
+        for (String s : set)
+            shortest = Math.min(shortest, s.length());
+        return set.isEmpty() ? 0 : shortest;
+    }
+
+    // how selective a set is: the length of its shortest string, less a character for each doubling of its size
+    private static int score(Set<String> set) {
+        return shortest(set) - (32 - Integer.numberOfLeadingZeros(set.size() - 1));
+    }
+
+    private static Set<String> best(Set<String> a, Set<String> b) {
+        int scoreA = score(a);
+        int scoreB = score(b);
+        if (scoreA != scoreB)
+            return scoreA > scoreB ? a : b;
+        return a.size() <= b.size() ? a : b;
+    }
+}
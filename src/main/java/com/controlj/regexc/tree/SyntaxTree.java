@@ -6,6 +6,7 @@ import com.controlj.regexc.tree.node.*;
 import com.controlj.regexc.tree.node.bracket.LeftBracket;
 import com.controlj.regexc.tree.node.bracket.RightBracket;
 import com.controlj.regexc.util.CommonSets;
+import com.controlj.regexc.util.CompileOptions;
 import com.controlj.regexc.util.InvalidSyntaxException;
 
 import java.util.*;
@@ -21,8 +22,21 @@ public class SyntaxTree {
 
     private Node root;
     private Map<String, String> names;
+    private final CompileOptions options;
+    // time spent in each phase of construction
+    private long parseNanos;
+    private long shuntNanos;
+    private long buildNanos;
 
     public SyntaxTree(String regex, Map<String, String> names) {
+        this(regex, names, null);
+    }
+
+    /**
+     * @param options limits on the size of the tree once repetitions are expanded, or null for none
+     */
+    public SyntaxTree(String regex, Map<String, String> names, CompileOptions options) {
+        this.options = options == null ? new CompileOptions().start() : options.start();
         this.names = names;
         root = null;
         this.regex = regex;
@@ -30,15 +44,42 @@ public class SyntaxTree {
             throw new InvalidSyntaxException("empty regex");
         nodeList = new ArrayList<>();
         itemTerminated = false;
+        long start = System.nanoTime();
         try {
             normalize();
         } catch (NoSuchElementException e) {
             throw new InvalidSyntaxException("Syntax error at end of regex");
         }
+        long parsed = System.nanoTime();
+        parseNanos = parsed - start;
 //        System.out.println(nodeList);
         shunt();
+        long shunted = System.nanoTime();
+        shuntNanos = shunted - parsed;
 //        System.out.println(nodeStack);
         buildTree();
+        buildNanos = System.nanoTime() - shunted;
+    }
+
+    /**
+     * @return the time taken to parse the regex into a list of nodes, in nanoseconds
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * @return the time taken to reorder the nodes into postfix order, in nanoseconds
+     */
+    public long getShuntNanos() {
+        return shuntNanos;
+    }
+
+    /**
+     * @return the time taken to build the tree from the postfix nodes, in nanoseconds
+     */
+    public long getBuildNanos() {
+        return buildNanos;
     }
 
     private void error(String msg, Queue<Character> queue) throws InvalidSyntaxException {
@@ -84,13 +125,7 @@ public class SyntaxTree {
             nodeList.add(new LChar(tokenSet.get(0)));
             return;
         }
-        nodeList.add(new LeftBracket());
-        nodeList.add(new LChar(tokenSet.get(0)));
-        for (int i = 1; i != tokenSet.size(); i++) {
-            nodeList.add(new BOr());
-            nodeList.add(new LChar(tokenSet.get(i)));
-        }
-        nodeList.add(new RightBracket());
+        nodeList.add(new LCharSet(tokenSet));
     }
 
     private void addString(char delimiter, Queue<Character> queue) {
@@ -226,15 +261,15 @@ public class SyntaxTree {
                     if (isComplementarySet) {
                         chSet = CommonSets.complementarySet(chSet);
                     }
-                    nodeList.add(new LeftBracket());
+                    // the set is padded with zeros, so only the first member can be zero
+                    List<Character> members = new ArrayList<>();
                     for (int i = 0; i != chSet.length; i++) {
-                        nodeList.add(new LChar(chSet[i]));
+                        members.add(chSet[i]);
                         if (i == chSet.length - 1 || chSet[i + 1] == 0) {
                             break;
                         }
-                        nodeList.add(new BOr());
                     }
-                    nodeList.add(new RightBracket());
+                    addTokenSet(members);
                     itemTerminated = true;
                     break;
                 }
@@ -316,6 +351,14 @@ public class SyntaxTree {
         }
     }
 
+    // refuse a repetition that would make the tree too large before copying it
+    private void checkExpansion(int size, int least, int most) {
+        long copies = most == -1 ? least + 1L : most;
+        long nodes = nodeList.size() + (size + 6L) * copies;
+        options.checkNfaStates(nodes > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)nodes);
+        options.checkDeadline();
+    }
+
     // look back for a completed term
     private void performMany(int least, int most) {
         if (!(least == 1 && most == 1)) {
@@ -343,6 +386,7 @@ public class SyntaxTree {
                 } else {
                     sample = Collections.singletonList(nodeList.remove(nodeList.size() - 1));
                 }
+                checkExpansion(sample.size(), least, most);
 
                 if (most == -1) {
                     for (int i = 0; i < least; i++) {
@@ -354,23 +398,26 @@ public class SyntaxTree {
                     nodeList.add(new LNull());
                 } else {
                     if (least != most) {
+                        // x{n,m} is x{n} followed by nested optionals (x(x(x)?)?)?, linear in m
                         nodeList.add(new LeftBracket());
-                        for (int i = least; i <= most; i++) {
+                        for (int i = 0; i != least; i++) {
+                            nodeList.addAll(copyNodes(sample));
+                            nodeList.add(new BConcat());
+                        }
+                        for (int i = least; i != most; i++) {
                             nodeList.add(new LeftBracket());
-                            if (i == 0) {
-                                nodeList.add(new LClosure());
-                            } else {
-                                for (int j = 0; j != i; j++) {
-                                    nodeList.addAll(copyNodes(sample));
-                                    if (j != i - 1) {
-                                        nodeList.add(new BConcat());
-                                    }
-                                }
-                            }
+                            nodeList.add(new LeftBracket());
+                            nodeList.add(new LClosure());
+                            nodeList.add(new RightBracket());
+                            nodeList.add(new BOr());
+                            nodeList.add(new LeftBracket());
+                            nodeList.addAll(copyNodes(sample));
+                            if (i != most - 1)
+                                nodeList.add(new BConcat());
+                        }
+                        for (int i = least; i != most; i++) {
+                            nodeList.add(new RightBracket());
                             nodeList.add(new RightBracket());
-                            if (i != most) {
-                                nodeList.add(new BOr());
-                            }
                         }
                         nodeList.add(new RightBracket());
                     } else {
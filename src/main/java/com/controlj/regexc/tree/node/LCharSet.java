@@ -0,0 +1,66 @@
+package com.controlj.regexc.tree.node;
+
+import com.controlj.regexc.automata.NFA;
+import com.controlj.regexc.stack.OperatingStack;
+import com.controlj.regexc.stack.ShuntingStack;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A leaf matching any one of a set of characters, such as {@code [a-z]}, {@code .} or {@code \w}. It becomes a
+ * single set-labelled NFA transition rather than an alternation of {@link LChar} leaves.
+ */
+public class LCharSet extends LeafNode {
+
+    // the members, all below CommonSets.ENCODING_LENGTH; shared by copies, so never modified
+    public final BitSet chars;
+
+    public LCharSet(BitSet chars) {
+        this.chars = chars;
+    }
+
+    public LCharSet(List<Character> chars) {
+        this.chars = new BitSet();
+        for (char c : chars)
+            this.chars.set(c);
+    }
+
+    @Override
+    public void accept(NFA nfa) {
+        nfa.visit(this);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        int c = chars.nextSetBit(0);
+        while (c >= 0) {
+            int end = chars.nextClearBit(c) - 1;
+            sb.append(format(c));
+            if (end != c)
+                sb.append('-').append(format(end));
+            c = chars.nextSetBit(end + 1);
+        }
+        return sb.append(']').append(super.toString()).toString();
+    }
+
+    private static String format(int c) {
+        return c <= ' ' ? String.format("\\x%02x", c) : String.valueOf((char) c);
+    }
+
+    @Override
+    public Node copy() {
+        return new LCharSet(chars);
+    }
+
+    @Override
+    public void accept(OperatingStack operatingStack) {
+        operatingStack.visit(this);
+    }
+
+    @Override
+    public void accept(ShuntingStack shuntingStack) {
+        shuntingStack.visit(this);
+    }
+}
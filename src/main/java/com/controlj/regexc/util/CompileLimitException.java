@@ -0,0 +1,29 @@
+package com.controlj.regexc.util;
+
+/**
+ * Thrown when compiling a pattern would exceed one of the limits set in {@link CompileOptions}.
+ */
+public class CompileLimitException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The limits that can be exceeded.
+     */
+    public enum Limit {
+        NFA_STATES,
+        DFA_STATES,
+        TABLE_BYTES,
+        TIME
+    }
+
+    private final Limit limit;
+
+    public CompileLimitException(Limit limit, String message) {
+        super(message);
+        this.limit = limit;
+    }
+
+    public Limit getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,123 @@
+package com.controlj.regexc.util;
+
+/**
+ * Limits on the resources compiling a pattern may use, so that a pattern from an untrusted source, such as
+ * {@code (.*'a'){30}}, cannot tie up a thread or exhaust the heap. Every limit is off by default. Exceeding one throws
+ * a {@link CompileLimitException} from the stage that exceeded it.
+ * <p>
+ * The timeout covers the whole compile: the stages share the deadline fixed by {@link #start()}, which each stage
+ * calls in case it was given options that were not started yet.
+ */
+public class CompileOptions {
+    private int maxNfaStates = Integer.MAX_VALUE;
+    private int maxDfaStates = Integer.MAX_VALUE;
+    private long maxTableBytes = Long.MAX_VALUE;
+    private long timeoutMillis;
+    private boolean fallback = true;
+    private boolean started;
+    private long deadline;      // System.nanoTime() to finish by, once started with a timeout
+
+    public int getMaxNfaStates() {
+        return maxNfaStates;
+    }
+
+    /**
+     * @param maxNfaStates the most NFA states, which also bounds the nodes of the syntax tree after repetitions such
+     *                     as {@code x{1000}} are expanded
+     */
+    public CompileOptions setMaxNfaStates(int maxNfaStates) {
+        this.maxNfaStates = maxNfaStates;
+        return this;
+    }
+
+    public int getMaxDfaStates() {
+        return maxDfaStates;
+    }
+
+    /**
+     * @param maxDfaStates the most states the subset construction may build, before minimization
+     */
+    public CompileOptions setMaxDfaStates(int maxDfaStates) {
+        this.maxDfaStates = maxDfaStates;
+        return this;
+    }
+
+    public long getMaxTableBytes() {
+        return maxTableBytes;
+    }
+
+    /**
+     * @param maxTableBytes the most bytes of transition table, estimated during the subset construction and
+     *                      checked exactly once the DFA is built
+     */
+    public CompileOptions setMaxTableBytes(long maxTableBytes) {
+        this.maxTableBytes = maxTableBytes;
+        return this;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * @param timeoutMillis the wall-clock time a compile may take, or 0 for no limit
+     */
+    public CompileOptions setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    public boolean isFallback() {
+        return fallback;
+    }
+
+    /**
+     * @param fallback true, the default, if a matcher whose DFA exceeds a limit should use a lazy DFA instead. The
+     *                 NFA limit still applies, and searchers, which need complete DFAs, always fail.
+     */
+    public CompileOptions setFallback(boolean fallback) {
+        this.fallback = fallback;
+        return this;
+    }
+
+    /**
+     * @return these options with the deadline fixed from now, or these options if already started
+     */
+    public CompileOptions start() {
+        if (started)
+            return this;
+        CompileOptions options = new CompileOptions();
+        options.maxNfaStates = maxNfaStates;
+        options.maxDfaStates = maxDfaStates;
+        options.maxTableBytes = maxTableBytes;
+        options.timeoutMillis = timeoutMillis;
+        options.fallback = fallback;
+        options.started = true;
+        options.deadline = System.nanoTime() + timeoutMillis * 1000000;
+        return options;
+    }
+
+    public void checkNfaStates(int count) {
+        if (count > maxNfaStates)
+            throw new CompileLimitException(CompileLimitException.Limit.NFA_STATES,
+                    "More than " + maxNfaStates + " NFA states");
+    }
+
+    public void checkDfaStates(int count) {
+        if (count > maxDfaStates)
+            throw new CompileLimitException(CompileLimitException.Limit.DFA_STATES,
+                    "More than " + maxDfaStates + " DFA states");
+    }
+
+    public void checkTableBytes(long bytes) {
+        if (bytes > maxTableBytes)
+            throw new CompileLimitException(CompileLimitException.Limit.TABLE_BYTES,
+                    "Transition table larger than " + maxTableBytes + " bytes");
+    }
+
+    public void checkDeadline() {
+        if (started && timeoutMillis != 0 && System.nanoTime() - deadline > 0)
+            throw new CompileLimitException(CompileLimitException.Limit.TIME,
+                    "Compile took longer than " + timeoutMillis + " ms");
+    }
+}
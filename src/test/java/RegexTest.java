@@ -1,18 +1,58 @@
+import com.controlj.regexc.BytecodeMatcher;
 import com.controlj.regexc.CCodeWriter;
+import com.controlj.regexc.CompileStatistics;
+import com.controlj.regexc.JavaCodeWriter;
+import com.controlj.regexc.MatchedText;
+import com.controlj.regexc.ParallelSearcher;
+import com.controlj.regexc.RegexCache;
 import com.controlj.regexc.RegexMatcher;
+import com.controlj.regexc.RegexSearcher;
+import com.controlj.regexc.RegexSet;
+import com.controlj.regexc.Rex;
+import com.controlj.regexc.StreamSearcher;
 import com.controlj.regexc.automata.DFA;
+import com.controlj.regexc.automata.DFAImage;
+import com.controlj.regexc.automata.GlushkovNFA;
+import com.controlj.regexc.automata.LazyDFA;
 import com.controlj.regexc.automata.NFA;
+import com.controlj.regexc.automata.NFAState;
+import com.controlj.regexc.tree.RequiredLiterals;
 import com.controlj.regexc.tree.SyntaxTree;
+import com.controlj.regexc.tree.node.LChar;
+import com.controlj.regexc.tree.node.LCharSet;
 import com.controlj.regexc.tree.node.Node;
 import com.controlj.regexc.util.Actions;
+import com.controlj.regexc.util.CompileLimitException;
+import com.controlj.regexc.util.CompileOptions;
 import com.controlj.regexc.util.InvalidSyntaxException;
 import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
 import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 /**
@@ -59,7 +99,8 @@ public class RegexTest {
                     "    }\n" +
                     "    exit(0);\n" +
                     "}";
-    private static final String TEMPPATH = "src/test/temp";
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
 
     private static void runCmd(String cmd) throws IOException, InterruptedException {
         Process process = Runtime.getRuntime().exec(cmd);
@@ -105,16 +146,13 @@ public class RegexTest {
         actions.addHeader(HEADER1);
         actions.addHeader(HEADER2);
         actions.setPrefix("test");
-        CCodeWriter codeWriter = new CCodeWriter(dfa, new File(TEMPPATH), actions);
+        File dir = temp.getRoot();
+        CCodeWriter codeWriter = new CCodeWriter(dfa, dir, actions);
         try {
-
-            File aout = new File(TEMPPATH + "/a.out");
-            if (aout.exists())
-                //noinspection ResultOfMethodCallIgnored
-                aout.delete();
+            File aout = new File(dir, "a.out");
             codeWriter.write();
-            runCmd("clang -o " + TEMPPATH + "/a.out " + TEMPPATH + "/lex_test.c");
-            runCmd(TEMPPATH + "/a.out");
+            runCmd("clang -o " + aout + " " + new File(dir, "lex_test.c"));
+            runCmd(aout.getPath());
         } catch (IOException e) {
             e.printStackTrace();
             Assert.fail("File error.");
@@ -169,15 +207,863 @@ public class RegexTest {
         testFor(regex, str);
     }
 
+    @Test
+    public void testMinimize() {
+        // the states after 'a' and after 'c' are equivalent, as are the three states after the final character
+        String regex = "('ab'|'cb')'d'('x'|'y'|'z')";
+        DFA dfa = new DFA(new NFA(new SyntaxTree(regex, null).getRoot()).getStateList());
+        System.out.println("DFA minimized from " + dfa.getUnminimizedStateCount() + " to " + dfa.getStateCount() + " states");
+        Assert.assertEquals(5, dfa.getStateCount());
+        Assert.assertTrue(dfa.getUnminimizedStateCount() > dfa.getStateCount());
+        testFor(regex, "abdx");
+        testFor(regex, "cbdz");
+        testFor(regex, "acbdy");
+        testFor(regex, "cbd");
+    }
+
+    @Test
+    public void testDeepDFA() throws InterruptedException {
+        // 2048 states reached one after another; collecting them recursively overflowed this stack
+        String regex = "('a'|'b')*'a'('a'|'b'){10}";
+        DFA[] dfa = new DFA[1];
+        Throwable[] error = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                dfa[0] = new DFA(new NFA(new SyntaxTree(regex, null).getRoot()).getStateList());
+            } catch (Throwable e) {
+                error[0] = e;
+            }
+        }, "deep", 128 * 1024);
+        thread.start();
+        thread.join();
+        Assert.assertNull(error[0]);
+        Assert.assertEquals(2048, dfa[0].getStateCount());
+        testFor(regex, "bbabbbbbbbbbb");
+    }
+
+    @Test
+    public void testByteClasses() {
+        DFA dfa = new DFA(new NFA(new SyntaxTree("\\d+'.'[a-f]", null).getRoot()).getStateList());
+        // digits, '.', a-f and everything else
+        Assert.assertEquals(4, dfa.getClassCount());
+        Assert.assertEquals(dfa.getClassMap()['0'], dfa.getClassMap()['9']);
+        Assert.assertNotEquals(dfa.getClassMap()['0'], dfa.getClassMap()['a']);
+        int[][] wide = dfa.getTransitionTable();
+        int[][] compact = dfa.getCompactTable();
+        for (int s = 0; s != wide.length; s++) {
+            Assert.assertEquals(4, compact[s].length);
+            for (int ch = 0; ch != wide[s].length; ch++)
+                Assert.assertEquals(wide[s][ch], compact[s][dfa.getClassMap()[ch] & 0xFF]);
+        }
+        testFor("\\d+'.'[a-f]", "123.c");
+        testFor("\\d+'.'[a-f]", "123.g");
+    }
+
+    @Test
+    public void testFlatTable() {
+        // 'b' is only reachable through an accept state
+        DFA dfa = new DFA(new NFA(new SyntaxTree("'a'('bc')*", null).getRoot()).getStateList());
+        int stride = dfa.getClassCount();
+        boolean[] finals = dfa.getFinalStates();
+        for (int s = 0; s != finals.length; s++)
+            Assert.assertEquals(finals[s], s * stride >= dfa.getFlatAcceptState());
+        Assert.assertEquals(finals.length * stride, dfa.getFlatRejectState());
+        int[] flat = dfa.getFlatTable();
+        int[][] compact = dfa.getCompactTable();
+        for (int s = 0; s != compact.length; s++) {
+            for (int k = 0; k != stride; k++)
+                Assert.assertEquals(compact[s][k] * stride, flat[s * stride + k]);
+        }
+        for (int k = 0; k != stride; k++)
+            Assert.assertEquals(dfa.getFlatRejectState(), flat[dfa.getFlatRejectState() + k]);
+        testFor("'a'('bc')*", "abcbc");
+        testFor("'a'('bc')*", "abcb");
+    }
+
+    @Test
+    public void testSearch() {
+        RegexSearcher searcher = new RegexSearcher("\\d+'.'\\d");
+        Assert.assertEquals(Arrays.asList("2:1.2", "7:33.4"), searchAll(searcher, "v 1.2, 33.4 and 5."));
+        // the leftmost start wins, then the shortest match from it
+        Assert.assertEquals(Arrays.asList("0:abcd"), searchAll(new RegexSearcher("'abcd'|'c'"), "abcd"));
+        Assert.assertEquals(Arrays.asList("1:xyz"), searchAll(new RegexSearcher("'xyz'|'y'"), "axyz"));
+        Assert.assertEquals(Arrays.asList("0:abbbc"), searchAll(new RegexSearcher("'a'[b]*'c'|'b'"), "abbbc"));
+        Assert.assertEquals(Arrays.asList("1:bc", "4:bc"), searchAll(new RegexSearcher("'bc'|'c'"), "abcxbc"));
+        Assert.assertEquals(Arrays.asList("1:a", "2:a"), searchAll(new RegexSearcher("'a'*"), "baa"));
+    }
+
+    @Test
+    public void testSearchPrefix() {
+        Assert.assertEquals("GET /", new NFA(new SyntaxTree("'GET /'[a-z]+", null).getRoot()).literalPrefix(64));
+        Assert.assertEquals("ab", new NFA(new SyntaxTree("'ab'('c'|'d')", null).getRoot()).literalPrefix(64));
+        Assert.assertEquals("", new NFA(new SyntaxTree("'a'*'b'", null).getRoot()).literalPrefix(64));
+        Assert.assertEquals("", new NFA(new SyntaxTree("'ab'|('ac')?", null).getRoot()).literalPrefix(64));
+        String regex = "'ERROR '\\d+";
+        Pattern pattern = Pattern.compile("ERROR \\d+");
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(5);
+        for (int i = 0; i != 5000; i++)
+            sb.append(random.nextInt(20) == 0 ? "ERROR 4" : random.nextBoolean() ? "ERR " : "ERROR x");
+        String str = sb.toString();
+        List<String> expected = new ArrayList<>();
+        java.util.regex.Matcher matcher = pattern.matcher(str);
+        while (matcher.find())
+            expected.add(matcher.start() + ":" + matcher.group());
+        RegexSearcher searcher = new RegexSearcher(regex, RegexSearcher.Mode.LONGEST);
+        Assert.assertEquals(expected, searchAll(searcher, str));
+        Assert.assertEquals(expected, searchAll(searcher, new StringBuilder(str)));
+        searcher.search(str.toCharArray(), 0, str.length());
+        Assert.assertEquals(expected, collect(searcher));
+        searcher.search(ByteBuffer.wrap(str.getBytes(StandardCharsets.ISO_8859_1)));
+        Assert.assertEquals(expected, collect(searcher));
+    }
+
+    @Test
+    public void testRequiredLiterals() {
+        Assert.assertEquals(Arrays.asList("timeout="), literals(".*'timeout='\\d+'ms'"));
+        Assert.assertEquals(Arrays.asList("ms"), literals(".*'t'?'ms'"));
+        Assert.assertEquals(Arrays.asList("error: ", "fatal: "), literals("[a-z ]*('error'|'fatal')': '.*"));
+        Assert.assertEquals(Collections.emptyList(), literals(".*('a'|'bc').*"));
+        Assert.assertEquals(Collections.emptyList(), literals("('timeout')?\\d+"));
+        Random random = new Random(6);
+        String[] words = {"timeout=", "timeout", "error: ", "fatal: ", "ms", "42", " x"};
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i != 2000; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = random.nextInt(6); j != 0; j--)
+                sb.append(words[random.nextInt(words.length)]);
+            lines.add(sb.toString());
+        }
+        for (String regex : new String[]{".*'timeout='\\d+'ms'", "[a-z ]*('error'|'fatal')': '.*"}) {
+            RegexMatcher matcher = new RegexMatcher(regex, RegexMatcher.Engine.DFA);
+            Pattern pattern = Pattern.compile(regex.replaceAll("'", ""));
+            RegexSearcher searcher = new RegexSearcher(regex.replace(".*", ""), RegexSearcher.Mode.LONGEST);
+            Pattern searchPattern = Pattern.compile(regex.replace(".*", "").replaceAll("'", ""));
+            for (String line : lines) {
+                Assert.assertEquals(line, pattern.matcher(line).matches(), matcher.match(line));
+                byte[] bytes = line.getBytes(StandardCharsets.ISO_8859_1);
+                Assert.assertEquals(line, pattern.matcher(line).matches(), matcher.match(bytes, 0, bytes.length));
+                List<String> expected = new ArrayList<>();
+                java.util.regex.Matcher m = searchPattern.matcher(line);
+                while (m.find())
+                    expected.add(m.start() + ":" + m.group());
+                Assert.assertEquals(line, expected, searchAll(searcher, line));
+            }
+        }
+    }
+
+    private static List<String> literals(String regex) {
+        List<String> literals = new ArrayList<>(new RequiredLiterals(new SyntaxTree(regex, null).getRoot()).getLiterals());
+        Collections.sort(literals);
+        return literals;
+    }
+
+    @Test
+    public void testSearchLongest() {
+        Assert.assertEquals(Arrays.asList("0:a", "1:a", "2:a", "3:a"), searchAll(new RegexSearcher("'a'+"), "aaaa"));
+        RegexSearcher searcher = new RegexSearcher("'a'+", RegexSearcher.Mode.LONGEST);
+        Assert.assertEquals(Arrays.asList("0:aaaa", "5:aa"), searchAll(searcher, "aaaabaa"));
+        searcher = new RegexSearcher("\\d+('.'\\d+)?|[a-z]+", RegexSearcher.Mode.LONGEST);
+        Assert.assertEquals(Arrays.asList("0:x", "2:12.5", "7:y", "9:3"), searchAll(searcher, "x 12.5 y 3."));
+        // leftmost-longest: the longest match from the leftmost start, not from the match that ends first
+        assertLongest("'abcd'|'c'", "abcd", "0-4");
+        assertLongest("'a'[b]*'c'|'b'", "abbbc", "0-5");
+        assertLongest("'a'[b]*'c'|'b'", "abbbx", "1-2 2-3 3-4");
+    }
+
+    // compare the longest matches found by each kind of searcher
+    private static void assertLongest(String regex, String text, String expected) {
+        RegexSearcher searcher = new RegexSearcher(regex, RegexSearcher.Mode.LONGEST);
+        StringBuilder sb = new StringBuilder();
+        searcher.search(text);
+        while (searcher.find())
+            sb.append(' ').append(searcher.getStart()).append('-').append(searcher.getEnd());
+        Assert.assertEquals(expected, sb.toString().trim());
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        StringBuilder stream = new StringBuilder();
+        StreamSearcher streamSearcher = new StreamSearcher(searcher,
+                (start, end) -> stream.append(' ').append(start).append('-').append(end), 10);
+        for (byte b : bytes)
+            streamSearcher.search(new byte[]{b}, 0, 1);
+        streamSearcher.finish();
+        Assert.assertEquals(expected, stream.toString().trim());
+        StringBuilder parallel = new StringBuilder();
+        ParallelSearcher parallelSearcher = new ParallelSearcher(searcher);
+        parallelSearcher.setChunkSize(1);
+        parallelSearcher.search(bytes, 0, bytes.length,
+                (start, end) -> parallel.append(' ').append(start).append('-').append(end));
+        Assert.assertEquals(expected, parallel.toString().trim());
+    }
+
+    @Test
+    public void testSearchCursor() {
+        RegexSearcher searcher = new RegexSearcher("\\d+", RegexSearcher.Mode.LONGEST);
+        searcher.search("a12bc345");
+        StringBuilder sb = new StringBuilder();
+        while (searcher.find())
+            sb.append(searcher.getStart()).append('-').append(searcher.getEnd()).append(' ');
+        Assert.assertEquals("1-3 5-8 ", sb.toString());
+        Assert.assertEquals(-1, searcher.getStart());
+        Assert.assertNull(searcher.nextElement());
+    }
+
+    @Test
+    public void testInputTypes() {
+        String text = "xx2015-05-11yy";
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+        direct.position(2).limit(12);
+        ByteBuffer heap = ByteBuffer.wrap(bytes, 2, 10).slice();
+        for (RegexMatcher.Engine engine : RegexMatcher.Engine.values()) {
+            RegexMatcher matcher = new RegexMatcher("\\d+'-'\\d+'-'\\d+", engine);
+            Assert.assertTrue(matcher.match(new StringBuilder(text.substring(2, 12))));
+            Assert.assertTrue(matcher.match(text.toCharArray(), 2, 10));
+            Assert.assertFalse(matcher.match(text.toCharArray(), 1, 10));
+            Assert.assertTrue(matcher.match(bytes, 2, 10));
+            Assert.assertTrue(matcher.match(heap));
+            Assert.assertTrue(matcher.match(direct));
+            Assert.assertEquals(2, direct.position());
+        }
+        RegexSearcher searcher = new RegexSearcher("\\d+", RegexSearcher.Mode.LONGEST);
+        List<String> expected = Arrays.asList("2:2015", "7:05", "10:11");
+        Assert.assertEquals(expected, searchAll(searcher, new StringBuilder(text)));
+        searcher.search(text.toCharArray(), 1, 12);
+        Assert.assertEquals(expected, collect(searcher));
+        searcher.search(bytes, 0, bytes.length);
+        Assert.assertEquals(expected, collect(searcher));
+        direct.clear();
+        searcher.search(direct);
+        Assert.assertEquals(expected, collect(searcher));
+        searcher.search(heap);
+        Assert.assertEquals(Arrays.asList("0:2015", "5:05", "8:11"), collect(searcher));
+    }
+
+    @Test
+    public void testStreamSearch() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(3);
+        while (sb.length() < 300000)
+            sb.append(random.nextInt(1000)).append(random.nextBoolean() ? " " : ".");
+        String text = sb.toString();
+        RegexSearcher searcher = new RegexSearcher("\\d+('.'\\d+)*", RegexSearcher.Mode.LONGEST);
+        List<String> expected = new ArrayList<>();
+        searcher.search(text);
+        while (searcher.find())
+            expected.add(searcher.getStart() + "-" + searcher.getEnd());
+        List<String> found = new ArrayList<>();
+        StreamSearcher streamSearcher = new StreamSearcher(searcher, (start, end) -> found.add(start + "-" + end),
+                StreamSearcher.DEFAULT_HISTORY_LIMIT);
+        streamSearcher.search(new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1)));
+        Assert.assertEquals(expected, found);
+
+        // a start beyond the retained history is reported as -1
+        found.clear();
+        streamSearcher = new StreamSearcher(new RegexSearcher("'a'*'b'"), (start, end) -> found.add(start + "-" + end), 10);
+        byte[] bytes = "xaaaaaaaaaaaaaaaaaaaab".getBytes(StandardCharsets.ISO_8859_1);
+        for (int i = 0; i < bytes.length; i += 4)
+            streamSearcher.search(bytes, i, Math.min(4, bytes.length - i));
+        streamSearcher.finish();
+        Assert.assertEquals(Arrays.asList("-1-22"), found);
+    }
+
+    @Test
+    public void testMappedSearch() throws IOException {
+        File file = temp.newFile("mapped.txt");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i != 20000; i++)
+            sb.append("line ").append(i).append(i % 7 == 0 ? " ERROR code=" + i : " ok").append('\n');
+        String text = sb.toString();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.ISO_8859_1)) {
+            writer.write(text);
+        }
+        RegexSearcher searcher = new RegexSearcher("'code='\\d+", RegexSearcher.Mode.LONGEST);
+        List<String> expected = new ArrayList<>();
+        searcher.search(text);
+        while (searcher.find())
+            expected.add(searcher.getStart() + "-" + searcher.getEnd());
+        List<String> found = new ArrayList<>();
+        StreamSearcher streamSearcher = new StreamSearcher(searcher, (start, end) -> found.add(start + "-" + end),
+                StreamSearcher.DEFAULT_HISTORY_LIMIT);
+        streamSearcher.setMapWindow(4093);      // small windows so that matches straddle them
+        streamSearcher.search(file.toPath());
+        Assert.assertEquals(expected, found);
+    }
+
+    @Test
+    public void testParallelSearch() {
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(4);
+        while (sb.length() < 2000000)
+            sb.append("10.0.").append(random.nextInt(300)).append('.').append(random.nextInt(300))
+                    .append(random.nextInt(50) == 0 ? " GET /error" : " GET /index").append('\n');
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        for (RegexSearcher.Mode mode : RegexSearcher.Mode.values()) {
+            RegexSearcher searcher = new RegexSearcher("\\d+'.'\\d+' GET /error'", mode);
+            List<String> expected = new ArrayList<>();
+            long prev = System.currentTimeMillis();
+            searcher.search(bytes, 0, bytes.length);
+            while (searcher.find())
+                expected.add(searcher.getStart() + "-" + searcher.getEnd());
+            System.out.println("Cost " + (System.currentTimeMillis() - prev) + " ms to search 2MB");
+            ParallelSearcher parallelSearcher = new ParallelSearcher(searcher);
+            parallelSearcher.setPool(new ForkJoinPool(4));
+            parallelSearcher.setChunkSize(100000);
+            List<String> found = new ArrayList<>();
+            prev = System.currentTimeMillis();
+            parallelSearcher.search(bytes, 0, bytes.length, (start, end) -> found.add(start + "-" + end));
+            System.out.println("Cost " + (System.currentTimeMillis() - prev) + " ms to search 2MB in parallel");
+            Assert.assertEquals(expected, found);
+        }
+    }
+
+    @Test
+    public void testSearchLinear() {
+        char[] chars = new char[1000000];
+        Arrays.fill(chars, 'a');
+        String str = new String(chars);
+        long prev = System.currentTimeMillis();
+        Assert.assertEquals(0, searchAll(new RegexSearcher("'a'*'b'"), str).size());
+        Assert.assertEquals(1, searchAll(new RegexSearcher("'a'+'b'"), str + "b").size());
+        System.out.println("Cost " + (System.currentTimeMillis() - prev) + " ms to search 1MB twice");
+    }
+
+    @Test
+    public void testSearchRescan() {
+        // every "a" is found only after reading to the end, in case the "b" before it starts a match
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i != 100000; i++)
+            sb.append("ba");
+        String str = sb.toString();
+        long prev = System.currentTimeMillis();
+        List<String> found = searchAll(new RegexSearcher("'b'[ab]*'y'|'a'"), str);
+        long cost = System.currentTimeMillis() - prev;
+        System.out.println("Cost " + cost + " ms to find " + found.size() + " matches in 200KB");
+        Assert.assertEquals(100000, found.size());
+        Assert.assertEquals("1:a", found.get(0));
+        Assert.assertEquals("199999:a", found.get(found.size() - 1));
+        Assert.assertTrue("search is not linear", cost < 5000);
+    }
+
+    @Test
+    public void testLongestRescan() {
+        // every "a" could be the start of a longer match, until the end of the input shows there is no "b"
+        char[] chars = new char[200000];
+        Arrays.fill(chars, 'a');
+        String str = new String(chars);
+        long prev = System.currentTimeMillis();
+        List<String> found = searchAll(new RegexSearcher("'a'+'b'|'a'", RegexSearcher.Mode.LONGEST), str);
+        long cost = System.currentTimeMillis() - prev;
+        System.out.println("Cost " + cost + " ms to find " + found.size() + " longest matches in 200KB");
+        Assert.assertEquals(200000, found.size());
+        Assert.assertEquals("199999:a", found.get(found.size() - 1));
+        Assert.assertEquals(Collections.singletonList("0:aaab"), searchAll(new RegexSearcher("'a'+'b'|'a'",
+                RegexSearcher.Mode.LONGEST), "aaab"));
+        Assert.assertTrue("search is not linear", cost < 5000);
+    }
+
+    private static List<String> searchAll(RegexSearcher searcher, CharSequence str) {
+        searcher.search(str);
+        return collect(searcher);
+    }
+
+    private static List<String> collect(RegexSearcher searcher) {
+        List<String> found = new ArrayList<>();
+        while (searcher.hasMoreElements()) {
+            MatchedText text = searcher.nextElement();
+            found.add(text.getPos() + ":" + text.getText());
+        }
+        return found;
+    }
+
+    @Test
+    public void testLargeRuleSet() throws IOException {
+        // many alternative rules sharing character classes; CompileBenchmark times compiling them
+        StringBuilder sb = new StringBuilder("%prefix bench\n%names\n    digit = [0-9]\n    word = [a-zA-Z_]\n");
+        for (int i = 0; i != 100; i++) {
+            sb.append("%rule\n'cmd").append(i).append("' [ \\t]+ (digit+ | word+) (',' [ \\t]* (digit+ | word+))* [\\r]? \\n\n");
+        }
+        Rex rex = new Rex("bench", new ByteArrayInputStream(sb.toString().getBytes("UTF-8")));
+        rex.read();
+        DFA dfa = rex.getDfa();
+        Assert.assertTrue(dfaMatches(dfa, "cmd42 17, abc\n"));
+        Assert.assertTrue(dfaMatches(dfa, "cmd99\tx_y,1,2\r\n"));
+        Assert.assertFalse(dfaMatches(dfa, "cmd100 1\n"));
+        Assert.assertFalse(dfaMatches(dfa, "cmd7 1,\n"));
+    }
+
+    @Test
+    public void testDFAImage() throws IOException {
+        StringBuilder sb = new StringBuilder("%prefix bench\n%names\n    digit = [0-9]\n    word = [a-zA-Z_]\n");
+        for (int i = 0; i != 20; i++)
+            sb.append("%rule\n'cmd").append(i).append("' [ \\t]+ (digit+ | word+)\n{ arg(); }\n[\\r]? \\n\n");
+        Rex rex = new Rex("bench", new ByteArrayInputStream(sb.toString().getBytes("UTF-8")));
+        rex.read();
+        DFA dfa = rex.getDfa();
+        File file = temp.newFile("bench.dfa");
+        DFAImage.write(dfa, file.toPath());
+        long prev = System.nanoTime();
+        DFAImage image = DFAImage.map(file.toPath());
+        System.out.println("Cost " + (System.nanoTime() - prev) / 1000 + " us to map a DFA of " + image.getStateCount() + " states");
+        Assert.assertEquals(dfa.getStateCount(), image.getStateCount());
+        Assert.assertTrue(image.match("cmd12 17\n"));
+        Assert.assertTrue(image.match("cmd7\tx_y\r\n"));
+        Assert.assertFalse(image.match("cmd20 1\n"));
+        Assert.assertFalse(image.match("cmd7 1,\n"));
+        Random random = new Random(7);
+        String alphabet = "cmd0123 \t_xy\r\n";
+        for (int i = 0; i != 1000; i++) {
+            StringBuilder str = new StringBuilder("cmd");
+            for (int j = random.nextInt(8); j != 0; j--)
+                str.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            Assert.assertEquals(str.toString(), dfaMatches(dfa, str.toString()), image.match(str));
+        }
+        // the actions on every transition survive the round trip
+        int[] table = dfa.getFlatTable();
+        int[] actions = dfa.getFlatActions();
+        byte[] classMap = dfa.getClassMap();
+        for (int s = 0; s != table.length; s += dfa.getClassCount()) {
+            Assert.assertEquals(dfa.getFinalStates().length > s / dfa.getClassCount()
+                    && dfa.getFinalStates()[s / dfa.getClassCount()], image.isFinal(s));
+            for (int ch = 0; ch != 256; ch++) {
+                Assert.assertEquals(table[s + classMap[ch]], image.next(s, ch));
+                int[] expected = dfa.getActionSets().get(actions[s + classMap[ch]]).stream().mapToInt(Integer::intValue).toArray();
+                Assert.assertArrayEquals(expected, image.getActions(s, ch));
+            }
+        }
+        Assert.assertTrue(dfa.getActionSets().size() > 1);
+        ByteBuffer bytes = DFAImage.write(dfa);
+        bytes.putInt(4, DFAImage.VERSION + 1);
+        try {
+            DFAImage.load(bytes);
+            Assert.fail("Exception not thrown.");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    @Test
+    public void testJavaCodeWriter() throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(compiler);
+        File dir = temp.newFolder("java");
+        // a plain pattern, checked against the DFA it came from
+        String regex = "[a-z]+ ('@' | ' at ') [a-z]+ ('.' [a-z]{2,4})+";
+        DFA dfa = new DFA(new NFA(new SyntaxTree(regex, null).getRoot()).getStateList());
+        Actions actions = new Actions();
+        actions.setPrefix("email");
+        JavaCodeWriter writer = new JavaCodeWriter(dfa, dir, actions);
+        writer.setPackageName("gen");
+        writer.write();
+        Assert.assertEquals("LexEmail", writer.getClassName());
+        // a rule file with Java actions
+        String rules = "%prefix count\nimport java.util.ArrayList;\nArrayList<String> seen = new ArrayList<>();\n"
+                + "StringBuilder digits = new StringBuilder();\n%names\n    digit = [0-9]\n"
+                + "%rule\n'n'\n(digit\n{ digits.append((char) token); }\n)+ ';'\n"
+                + "{ seen.add(digits.toString()); digits.setLength(0); }\n";
+        Rex rex = new Rex("count", new ByteArrayInputStream(rules.getBytes("UTF-8")));
+        rex.read();
+        JavaCodeWriter lexWriter = new JavaCodeWriter(rex.getDfa(), dir, rex.getActions());
+        lexWriter.setPackageName("gen");
+        lexWriter.write();
+        Assert.assertEquals(0, compiler.run(null, null, null, writer.getFile().getPath(), lexWriter.getFile().getPath()));
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{dir.toURI().toURL()})) {
+            Class<?> email = loader.loadClass("gen.LexEmail");
+            Method matches = email.getMethod("matches", CharSequence.class);
+            String[] inputs = {"joe@example.com", "joe at example.com.au", "joe@example", "joe@example.c", "@x.com",
+                    "joe@example.comau", "joe@example.co.uk", ""};
+            for (String input : inputs)
+                Assert.assertEquals(input, dfaMatches(dfa, input), matches.invoke(null, input));
+            Class<?> count = loader.loadClass("gen.LexCount");
+            Object lexer = count.newInstance();
+            Method lex = count.getMethod("lex", int.class);
+            List<Integer> results = new ArrayList<>();
+            for (char c : "n12;n7;".toCharArray())
+                results.add((Integer) lex.invoke(lexer, (int) c));
+            Assert.assertEquals(Arrays.asList(1, 1, 1, 0, 1, 1, 0), results);
+            Field seen = count.getDeclaredField("seen");
+            seen.setAccessible(true);
+            Assert.assertEquals(Arrays.asList("12", "7"), seen.get(lexer));
+            Assert.assertEquals(2, lex.invoke(lexer, (int) 'x'));
+        }
+    }
+
+    @Test
+    public void testLazyDFA() {
+        // the full DFA for this needs over 2 million states
+        String regex = "('a'|'b')*'a'('a'|'b'){20}";
+        long prev = System.currentTimeMillis();
+        RegexMatcher matcher = new RegexMatcher(regex, RegexMatcher.Engine.LAZY_DFA);
+        System.out.println("Cost " + (System.currentTimeMillis() - prev) + " ms to compile lazily");
+        LazyDFA small = new LazyDFA(new NFA(new SyntaxTree(regex, null).getRoot()).getStateList(), 64);
+        Pattern pattern = Pattern.compile(regex.replaceAll("'", ""));
+        Random random = new Random(1);
+        for (int i = 0; i != 200; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = random.nextInt(60); j != 0; j--)
+                sb.append(random.nextBoolean() ? 'a' : 'b');
+            boolean expected = pattern.matcher(sb).matches();
+            Assert.assertEquals(expected, matcher.match(sb.toString()));
+            Assert.assertEquals(expected, small.match(sb));
+        }
+        Assert.assertTrue(small.getCachedStateCount() <= 64);
+        Assert.assertTrue(small.getClearCount() > 0);
+        Assert.assertFalse(matcher.match("aaaaaaaaaaaaaaaaaaaaac"));
+        // the smallest cache clears on almost every step
+        LazyDFA smallest = new LazyDFA(new NFA(new SyntaxTree("'abc'", null).getRoot()).getStateList(), 3);
+        Assert.assertTrue(smallest.match("abc"));
+        Assert.assertFalse(smallest.match("abd"));
+        Assert.assertTrue(smallest.getClearCount() > 0);
+        try {
+            new LazyDFA(new NFA(new SyntaxTree("'abc'", null).getRoot()).getStateList(), 2);
+            Assert.fail("Exception not thrown.");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    @Test
+    public void testLazyDFAThreads() throws Exception {
+        // threads share one cache that is cleared while others are still matching on it
+        String regex = "('a'|'b')*'a'('a'|'b'){6}";
+        LazyDFA dfa = new LazyDFA(new NFA(new SyntaxTree(regex, null).getRoot()).getStateList(), 16);
+        Pattern pattern = Pattern.compile(regex.replaceAll("'", ""));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Integer>> results = new ArrayList<>();
+        long prev = System.currentTimeMillis();
+        for (int t = 0; t != 4; t++) {
+            Random random = new Random(t);
+            results.add(executor.submit(() -> {
+                int wrong = 0;
+                for (int i = 0; i != 5000; i++) {
+                    StringBuilder sb = new StringBuilder();
+                    for (int j = random.nextInt(40); j != 0; j--)
+                        sb.append(random.nextBoolean() ? 'a' : 'b');
+                    if (dfa.match(sb) != pattern.matcher(sb).matches())
+                        wrong++;
+                }
+                return wrong;
+            }));
+        }
+        for (Future<Integer> result : results)
+            Assert.assertEquals(0, result.get().intValue());
+        executor.shutdown();
+        System.out.println("Cost " + (System.currentTimeMillis() - prev) + " ms to match on 4 threads, clearing "
+                + dfa.getClearCount() + " times");
+        Assert.assertTrue(dfa.getCachedStateCount() <= 16);
+    }
+
+    @Test
+    public void testBitParallel() {
+        String[] regexes = {"'abcab'", "('a'|'b')*'a'('a'|'b'){3}", "('ab'|'c')*'b'?", "('abc'|'b'*'ca'){2}'c'*",
+                "('a'|'b'){25}'c'('a'|'b'){5}"};
+        Random random = new Random(2);
+        for (String regex : regexes) {
+            RegexMatcher matcher = new RegexMatcher(regex, RegexMatcher.Engine.BIT_PARALLEL);
+            Pattern pattern = Pattern.compile(regex.replaceAll("'", ""));
+            for (int i = 0; i != 500; i++) {
+                StringBuilder sb = new StringBuilder();
+                for (int j = random.nextInt(45); j != 0; j--)
+                    sb.append((char) ('a' + random.nextInt(3)));
+                Assert.assertEquals(regex + " on " + sb, pattern.matcher(sb).matches(), matcher.match(sb.toString()));
+            }
+        }
+        Assert.assertEquals(-1, GlushkovNFA.countPositions(new SyntaxTree("'a'{64}", null).getRoot()));
+        char[] chars = new char[64];
+        Arrays.fill(chars, 'a');
+        Assert.assertTrue(new RegexMatcher("'a'{64}").match(new String(chars)));
+        // too many positions falls back to the DFA, as the bytecode engine does when its code is too long
+        RegexMatcher large = new RegexMatcher("'a'{64}", RegexMatcher.Engine.BIT_PARALLEL);
+        Assert.assertEquals(RegexMatcher.Engine.DFA, large.getEngine());
+        Assert.assertTrue(large.match(new String(chars)));
+    }
+
+    @Test
+    public void testBytecodeMatcher() {
+        String[] regexes = {"'abcab'", "('a'|'b')*'a'('a'|'b'){3}", "('ab'|'c')*'b'?", "[a-c]+'c'", "[^b]*'b'"};
+        Random random = new Random(4);
+        for (String regex : regexes) {
+            RegexMatcher matcher = new RegexMatcher(regex, RegexMatcher.Engine.BYTECODE);
+            Pattern pattern = Pattern.compile(regex.replaceAll("'", ""));
+            for (int i = 0; i != 500; i++) {
+                StringBuilder sb = new StringBuilder();
+                for (int j = random.nextInt(12); j != 0; j--)
+                    sb.append((char) ('a' + random.nextInt(4)));
+                boolean expected = pattern.matcher(sb).matches();
+                Assert.assertEquals(regex + " on " + sb, expected, matcher.match(sb.toString()));
+                byte[] bytes = ("x" + sb).getBytes(StandardCharsets.ISO_8859_1);
+                Assert.assertEquals(regex + " on " + sb, expected, matcher.match(bytes, 1, sb.length()));
+                char[] chars = ("x" + sb + "y").toCharArray();
+                Assert.assertEquals(regex + " on " + sb, expected, matcher.match(chars, 1, sb.length()));
+                ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+                direct.put(bytes).position(1);
+                Assert.assertEquals(regex + " on " + sb, expected, matcher.match(direct));
+            }
+        }
+        Assert.assertFalse(new RegexMatcher("[a-c]+", RegexMatcher.Engine.BYTECODE).match("ab\u0161"));
+        // too many states for the JIT to compile the code, so the table is used
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i != 500; i++)
+            words.append(i == 0 ? "" : "|").append("'w").append(i * 7919).append('\'');
+        Assert.assertNull(BytecodeMatcher.compile(new DFA(new NFA(new SyntaxTree(words.toString(), null).getRoot())
+                .getStateList())));
+        Assert.assertTrue(new RegexMatcher(words.toString(), RegexMatcher.Engine.BYTECODE).match("w15838"));
+        // against the table
+        String regex = "[a-z]+ ('@' | ' at ') [a-z]+ ('.' [a-z]{2,4})+";
+        RegexMatcher table = new RegexMatcher(regex, RegexMatcher.Engine.DFA);
+        RegexMatcher bytecode = new RegexMatcher(regex, RegexMatcher.Engine.BYTECODE);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i != 100000; i++)
+            sb.append((char) ('a' + random.nextInt(26)));
+        String input = sb.append("@example.com").toString();
+        for (int i = 0; i != 20; i++) {
+            Assert.assertTrue(table.match(input));
+            Assert.assertTrue(bytecode.match(input));
+        }
+        long prev = System.nanoTime();
+        for (int i = 0; i != 100; i++)
+            table.match(input);
+        long tableTime = System.nanoTime() - prev;
+        prev = System.nanoTime();
+        for (int i = 0; i != 100; i++)
+            bytecode.match(input);
+        System.out.println("Matching 10MB: table " + tableTime / 1000000 + " ms, bytecode "
+                + (System.nanoTime() - prev) / 1000000 + " ms");
+    }
+
+    @Test
+    public void testRegexSet() {
+        String[] regexes = {"'abcab'", "('a'|'b')*'a'('a'|'b'){3}", "('ab'|'c')*'b'?", "('abc'|'b'*'ca'){2}'c'*",
+                "'a'*", "[a-c]+'c'", "('a'|'b')*'a'('a'|'b'){3}"};
+        RegexSet set = new RegexSet(regexes);
+        Assert.assertEquals(regexes.length, set.size());
+        List<Pattern> patterns = new ArrayList<>();
+        for (String regex : regexes)
+            patterns.add(Pattern.compile(regex.replaceAll("'", "")));
+        Random random = new Random(3);
+        for (int i = 0; i != 2000; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = random.nextInt(12); j != 0; j--)
+                sb.append((char) ('a' + random.nextInt(3)));
+            List<Integer> expected = new ArrayList<>();
+            for (int k = 0; k != patterns.size(); k++) {
+                if (patterns.get(k).matcher(sb).matches())
+                    expected.add(k);
+            }
+            List<Integer> actual = new ArrayList<>();
+            for (int k : set.match(sb))
+                actual.add(k);
+            Assert.assertEquals(sb.toString(), expected, actual);
+            byte[] bytes = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+            Assert.assertArrayEquals(set.match(sb), set.match(bytes, 0, bytes.length));
+        }
+        Assert.assertArrayEquals(new int[]{1, 2, 6}, set.match("abab"));
+        Assert.assertFalse(set.matchesAny("abd"));
+    }
+
+    @Test
+    public void testCompileStatistics() throws IOException {
+        String regex = "('a'|'b')*'a'('a'|'b'){3}";
+        CompileStatistics statistics = new RegexMatcher(regex, RegexMatcher.Engine.DFA).getStatistics();
+        DFA dfa = new DFA(new NFA(new SyntaxTree(regex, null).getRoot()).getStateList());
+        System.out.println(statistics);
+        Assert.assertEquals(16, statistics.getDfaStateCount());
+        Assert.assertTrue(statistics.getSubsetStateCount() >= statistics.getDfaStateCount());
+        Assert.assertTrue(statistics.getNfaStateCount() > 2);
+        Assert.assertEquals(dfa.getTableBytes(), statistics.getTableBytes());
+        Assert.assertTrue(statistics.getSubsetNanos() > 0 && statistics.getTotalNanos() >= statistics.getSubsetNanos());
+        statistics = new RegexMatcher(regex, RegexMatcher.Engine.BIT_PARALLEL).getStatistics();
+        Assert.assertEquals(0, statistics.getNfaStateCount());
+        Assert.assertEquals(0, statistics.getDfaStateCount());
+        Assert.assertTrue(statistics.getParseNanos() > 0);
+        statistics = new RegexSearcher(regex, RegexSearcher.Mode.LONGEST).getStatistics();
+        Assert.assertTrue(statistics.getDfaStateCount() > 16);
+        Rex rex = new Rex("stats", new ByteArrayInputStream("%prefix stats\n%rule\n'ab'+\n".getBytes("UTF-8")));
+        rex.read();
+        Assert.assertEquals(rex.getDfa().getStateCount(), rex.getStatistics().getDfaStateCount());
+        // the cache tells its listener about each compile, not each hit
+        RegexCache cache = new RegexCache();
+        List<String> compiled = new ArrayList<>();
+        cache.setCompileListener((pattern, stats) -> compiled.add(pattern + " " + stats.getDfaStateCount()));
+        cache.getMatcher(regex, RegexMatcher.Engine.DFA);
+        cache.getMatcher(regex, RegexMatcher.Engine.DFA);
+        cache.getMatcher("'x'+", RegexMatcher.Engine.LAZY_DFA);
+        Assert.assertEquals(Arrays.asList(regex + " 16", "'x'+ 0"), compiled);
+    }
+
+    @Test
+    public void testCharSetLeaf() {
+        // a class is one leaf and one set-labelled transition, not an alternation of characters
+        Node root = new SyntaxTree("[a-z]", null).getRoot();
+        Assert.assertTrue(root instanceof LCharSet);
+        Assert.assertEquals(26, ((LCharSet) root).chars.cardinality());
+        Assert.assertTrue(new SyntaxTree("[^\\n]", null).getRoot() instanceof LCharSet);
+        Assert.assertTrue(new SyntaxTree("[b]", null).getRoot() instanceof LChar);
+        String regex = ".*'id='\\d+(\\w|[+-])*";
+        long start = System.nanoTime();
+        NFA nfa = new NFA(new SyntaxTree(regex, null).getRoot());
+        int transitions = 0;
+        for (NFAState state : nfa.getStateList())
+            transitions += state.getTransitionMap().size() + state.getSetTransitionMap().size();
+        DFA dfa = new DFA(nfa.getStateList());
+        System.out.println(regex + ": " + transitions + " NFA transitions, " + dfa.getStateCount() + " DFA states in "
+                + (System.nanoTime() - start) / 1000 + "us");
+        Assert.assertTrue(transitions < 20);
+        Pattern pattern = Pattern.compile(".*id=\\d+(\\w|[+-])*");
+        for (RegexMatcher.Engine engine : RegexMatcher.Engine.values()) {
+            RegexMatcher matcher = new RegexMatcher(regex, engine);
+            for (String s : new String[]{"id=1", "x id=12ab+c-d", "id=", "id=1 x", "\nid=7_", "id=x1", "zid=3-"})
+                Assert.assertEquals(engine + " " + s, pattern.matcher(s).matches(), matcher.match(s));
+        }
+        RegexSearcher searcher = new RegexSearcher("[0-9]+'.'[0-9]+", RegexSearcher.Mode.LONGEST);
+        Assert.assertEquals(Arrays.asList("2:3.14", "11:2.5"), searchAll(searcher, "x 3.14 and 2.5"));
+    }
+
+    @Test
+    public void testCountedRepetition() {
+        // the NFA grows linearly with the upper bound
+        int[] sizes = new int[2];
+        for (int k = 0; k != 2; k++) {
+            long start = System.nanoTime();
+            RegexMatcher matcher = new RegexMatcher("[a-z]{1," + (k + 1) * 100 + "}", RegexMatcher.Engine.DFA);
+            sizes[k] = matcher.getStatistics().getNfaStateCount();
+            System.out.println("[a-z]{1," + (k + 1) * 100 + "}: " + sizes[k] + " NFA states in "
+                    + (System.nanoTime() - start) / 1000 + "us");
+            Pattern pattern = Pattern.compile("[a-z]{1," + (k + 1) * 100 + "}");
+            for (int n : new int[]{0, 1, 99, 100, 101, 200, 201}) {
+                char[] chars = new char[n];
+                Arrays.fill(chars, 'q');
+                String s = new String(chars);
+                Assert.assertEquals(n + " chars", pattern.matcher(s).matches(), matcher.match(s));
+            }
+        }
+        Assert.assertTrue(sizes[1] < sizes[0] * 5 / 2);
+        for (String regex : new String[]{"('ab'){2,4}", "('a'|'bc'){0,3}'d'", "'x'{0,1}'y'{1,1}"}) {
+            RegexMatcher matcher = new RegexMatcher(regex);
+            Pattern pattern = Pattern.compile(regex.replace("'", ""));
+            for (String s : new String[]{"", "ab", "abab", "ababab", "abababab", "ababababab", "d", "abcd", "abcad",
+                    "abcabcd", "y", "xy", "xxy"})
+                Assert.assertEquals(regex + " " + s, pattern.matcher(s).matches(), matcher.match(s));
+        }
+    }
+
+    @Test
+    public void testCompileLimits() {
+        String regex = "('a'|'b')*'a'('a'|'b'){12}";
+        Pattern pattern = Pattern.compile("[ab]*a[ab]{12}");
+        // too many DFA states falls back to a lazy DFA, which still matches
+        long start = System.nanoTime();
+        RegexMatcher matcher = new RegexMatcher(regex, RegexMatcher.Engine.DFA, new CompileOptions().setMaxDfaStates(100));
+        System.out.println("Fell back in " + (System.nanoTime() - start) / 1000 + "us");
+        Assert.assertEquals(RegexMatcher.Engine.LAZY_DFA, matcher.getEngine());
+        Random random = new Random(23);
+        for (int i = 0; i != 200; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j = random.nextInt(30); j != 0; j--)
+                sb.append(random.nextBoolean() ? 'a' : 'b');
+            Assert.assertEquals(sb.toString(), pattern.matcher(sb).matches(), matcher.match(sb.toString()));
+        }
+        Assert.assertEquals(RegexMatcher.Engine.DFA,
+                new RegexMatcher("'ab'+", RegexMatcher.Engine.DFA, new CompileOptions().setMaxDfaStates(100)).getEngine());
+        assertLimit(CompileLimitException.Limit.DFA_STATES,
+                () -> new RegexMatcher(regex, RegexMatcher.Engine.DFA, new CompileOptions().setMaxDfaStates(100).setFallback(false)));
+        assertLimit(CompileLimitException.Limit.TABLE_BYTES,
+                () -> new RegexSearcher(regex, RegexSearcher.Mode.SHORTEST, new CompileOptions().setMaxTableBytes(10000)));
+        // the repetition is refused before it is expanded
+        start = System.nanoTime();
+        assertLimit(CompileLimitException.Limit.NFA_STATES,
+                () -> new RegexMatcher("('x'{1000}){1000}", RegexMatcher.Engine.DFA, new CompileOptions().setMaxNfaStates(100000)));
+        System.out.println("Refused expansion in " + (System.nanoTime() - start) / 1000 + "us");
+        start = System.nanoTime();
+        assertLimit(CompileLimitException.Limit.TIME,
+                () -> new RegexMatcher("('a'|'b')*'a'('a'|'b'){14}", RegexMatcher.Engine.DFA,
+                        new CompileOptions().setTimeoutMillis(20).setFallback(false)));
+        System.out.println("Timed out in " + (System.nanoTime() - start) / 1000 + "us");
+        // a cache does not keep a pattern that failed
+        RegexCache cache = new RegexCache();
+        cache.setCompileOptions(new CompileOptions().setMaxDfaStates(100));
+        Assert.assertEquals(RegexMatcher.Engine.LAZY_DFA, cache.getMatcher(regex, RegexMatcher.Engine.DFA).getEngine());
+        assertLimit(CompileLimitException.Limit.DFA_STATES, () -> cache.getSearcher(regex, RegexSearcher.Mode.SHORTEST));
+        Assert.assertEquals(1, cache.size());
+    }
+
+    private static void assertLimit(CompileLimitException.Limit limit, Runnable compile) {
+        try {
+            compile.run();
+            Assert.fail("Expected " + limit + " to be exceeded");
+        } catch (CompileLimitException e) {
+            Assert.assertEquals(limit, e.getLimit());
+        }
+    }
+
+    @Test
+    public void testRegexCache() throws Exception {
+        RegexCache cache = new RegexCache();
+        RegexMatcher matcher = cache.getMatcher("\\d+'.'\\d+");
+        Assert.assertSame(matcher, cache.getMatcher("\\d+'.'\\d+"));
+        Assert.assertNotSame(matcher, cache.getMatcher("\\d+'.'\\d+", RegexMatcher.Engine.DFA));
+        Assert.assertTrue(matcher.match("12.5"));
+        RegexSearcher searcher = cache.getSearcher("\\d+", RegexSearcher.Mode.LONGEST);
+        Assert.assertNotSame(searcher, cache.getSearcher("\\d+", RegexSearcher.Mode.LONGEST));
+        Assert.assertEquals(Arrays.asList("2:12", "7:3"), searchAll(searcher, "x 12 y 3"));
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals(3, cache.getMissCount());
+        Assert.assertEquals(3, cache.size());
+        try {
+            cache.getMatcher("[a]{4");
+            Assert.fail("Exception not thrown.");
+        } catch (InvalidSyntaxException ignored) {
+        }
+        Assert.assertEquals(3, cache.size());
+
+        // a cache with room for about one DFA evicts the least recently used
+        long weight = new RegexMatcher("'abc'[0-9]+", RegexMatcher.Engine.DFA).getMemorySize();
+        cache = new RegexCache(weight * 3 / 2);
+        RegexMatcher first = cache.getMatcher("'abc'[0-9]+", RegexMatcher.Engine.DFA);
+        cache.getMatcher("'abd'[0-9]+", RegexMatcher.Engine.DFA);
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertTrue(cache.getWeight() <= weight * 3 / 2);
+        Assert.assertNotSame(first, cache.getMatcher("'abc'[0-9]+", RegexMatcher.Engine.DFA));
+
+        // concurrent misses on one key compile it once
+        RegexCache shared = new RegexCache();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<RegexMatcher>> futures = new ArrayList<>();
+        for (int i = 0; i != 8; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return shared.getMatcher("('a'|'b')*'a'('a'|'b'){12}", RegexMatcher.Engine.DFA);
+            }));
+        }
+        start.countDown();
+        for (Future<RegexMatcher> future : futures)
+            Assert.assertSame(futures.get(0).get(), future.get());
+        executor.shutdown();
+        Assert.assertEquals(1, shared.getMissCount());
+        Assert.assertEquals(7, shared.getHitCount());
+        System.out.println(shared);
+    }
+
+    private static boolean dfaMatches(DFA dfa, String str) {
+        int[] table = dfa.getFlatTable();
+        byte[] classMap = dfa.getClassMap();
+        int s = dfa.getFlatInitState();
+        for (int i = 0; i != str.length() && s != dfa.getFlatRejectState(); i++)
+            s = table[s + (classMap[str.charAt(i)] & 0xFF)];
+        return s != dfa.getFlatRejectState() && s >= dfa.getFlatAcceptState();
+    }
+
     public void testFor(String regex, String str) {
         long prev;
         prev = System.currentTimeMillis();
         final boolean expected = Pattern.compile(regex.replaceAll("'", "")).matcher(str).matches();
         System.out.println(System.currentTimeMillis() - prev);
-        prev = System.currentTimeMillis();
-        boolean actual = new RegexMatcher(regex).match(str);
-        System.out.format("Time: %dms\n", System.currentTimeMillis() - prev);
-        Assert.assertEquals(expected, actual);
+        for (RegexMatcher.Engine engine : RegexMatcher.Engine.values()) {
+            prev = System.currentTimeMillis();
+            boolean actual = new RegexMatcher(regex, engine).match(str);
+            System.out.format("Time: %dms with %s\n", System.currentTimeMillis() - prev, engine);
+            Assert.assertEquals(engine.toString(), expected, actual);
+        }
     }
 
 }